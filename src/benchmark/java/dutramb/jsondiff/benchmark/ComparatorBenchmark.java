@@ -0,0 +1,92 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Marcio Branquinho Dutra <mdutra at gmail dot com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dutramb.jsondiff.benchmark;
+
+import dutramb.jsondiff.benchmark.Payloads.Density;
+import dutramb.jsondiff.logic.Comparator;
+import dutramb.jsondiff.model.Diff;
+import dutramb.jsondiff.model.Output;
+import dutramb.jsondiff.model.Payload;
+import dutramb.jsondiff.repository.MapRepository;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@code Comparator.compare} and {@code Comparator.processDiff} on
+ * several payload sizes and diff densities. The result cache is disabled, so
+ * every call of {@code compare} computes the diff.
+ *
+ * @author Marcio Branquinho Dutra
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g", "-DJSONDIFF_RESULT_CACHE_BYTES=0"})
+public class ComparatorBenchmark {
+
+    private static final Integer ID = 1;
+
+    @Param({"1024", "65536", "1048576", "16777216", "268435456"})
+    public int size;
+
+    @Param({"IDENTICAL", "ONE_MISMATCH", "ALTERNATING", "DIFFERENT"})
+    public Density density;
+
+    private Comparator comparator;
+    private Payload left;
+    private Payload right;
+
+    @Setup
+    public void setup() {
+        String value = Payloads.value(size);
+        left = Payload.of(value);
+        right = Payload.of(Payloads.change(value, density));
+        MapRepository.getInstance().insertLeftPayload(ID, left);
+        MapRepository.getInstance().insertRightPayload(ID, right);
+        comparator = new Comparator();
+    }
+
+    @Benchmark
+    public Output compare() {
+        return comparator.compare(ID);
+    }
+
+    @Benchmark
+    public List<Diff> processDiff() {
+        return comparator.processDiff(left, right);
+    }
+}
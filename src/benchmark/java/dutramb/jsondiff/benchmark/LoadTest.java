@@ -0,0 +1,195 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.benchmark;
+
+import dutramb.jsondiff.Main;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.glassfish.grizzly.http.server.HttpServer;
+
+/**
+ * Compares the server modes (worker pool and virtual threads) under many 
+ * concurrent keep-alive connections.
+ * <p>
+ * Each connection runs on its own virtual thread and repeats: a slow upload
+ * of the left side (the body is sent in two parts, with a pause between 
+ * them), an upload of the right side and a result request. Slow uploads 
+ * hold a worker thread in the pool mode, while a virtual thread just parks.
+ * <p>
+ * Arguments: number of connections (2000 by default) and number of rounds
+ * per connection (20 by default). The open files limit must allow two 
+ * sockets per connection.
+ *
+ * @author Marcio Branquinho Dutra
+ */
+public class LoadTest {
+
+    private static final int PAUSE_MILLIS = 20;
+    private static final String VALUE = "YWMvZGMhIQ==";
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        System.out.printf("%-16s %12s %10s %10s %10s %10s %8s%n", "mode", "requests/s", "p50 ms", "p99 ms", "max ms", "time s", "errors");
+        for (boolean virtualThreads : new boolean[]{false, true}) {
+            int port = virtualThreads ? 18081 : 18080;
+            HttpServer server = Main.startServer("http://localhost:" + port + "/json-diff/", virtualThreads);
+            try {
+                run(virtualThreads ? "virtual threads" : "worker pool", port, connections, rounds);
+            } finally {
+                server.shutdownNow();
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void run(String mode, int port, int connections, int rounds) throws Exception {
+        AtomicInteger errors = new AtomicInteger();
+        List<Future<long[]>> results = new ArrayList<>(connections);
+        long start = System.nanoTime();
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < connections; i++) {
+                int id = i;
+                results.add(clients.submit(() -> connection(port, id, rounds, errors)));
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long[] latencies = new long[0];
+        for (Future<long[]> result : results) {
+            long[] connection = result.get();
+            int previous = latencies.length;
+            latencies = Arrays.copyOf(latencies, previous + connection.length);
+            System.arraycopy(connection, 0, latencies, previous, connection.length);
+        }
+        Arrays.sort(latencies);
+        System.out.printf("%-16s %12.0f %10.2f %10.2f %10.2f %10.2f %8d%n", mode, latencies.length / seconds,
+                percentile(latencies, 0.50), percentile(latencies, 0.99), percentile(latencies, 1.0), seconds, errors.get());
+    }
+
+    /**
+     * Runs the rounds of one connection.
+     *
+     * @return The latency of each request, in nanoseconds.
+     */
+    private static long[] connection(int port, int id, int rounds, AtomicInteger errors) {
+        long[] latencies = new long[rounds * 3];
+        int count = 0;
+        try (Socket socket = new Socket("localhost", port)) {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            String body = "{\"value\":\"" + VALUE + "\"}";
+            for (int round = 0; round < rounds; round++) {
+                long start = System.nanoTime();
+                String head = "POST /json-diff/v1/diff/" + id + "/left HTTP/1.1\r\nHost: localhost\r\n"
+                        + "Content-Type: application/json\r\nContent-Length: " + body.length() + "\r\n\r\n";
+                out.write((head + body.substring(0, body.length() / 2)).getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                Thread.sleep(PAUSE_MILLIS);
+                out.write(body.substring(body.length() / 2).getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                count = record(latencies, count, start, read(in), 201, errors);
+
+                start = System.nanoTime();
+                head = "POST /json-diff/v1/diff/" + id + "/right HTTP/1.1\r\nHost: localhost\r\n"
+                        + "Content-Type: application/json\r\nContent-Length: " + body.length() + "\r\n\r\n";
+                out.write((head + body).getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                count = record(latencies, count, start, read(in), 201, errors);
+
+                start = System.nanoTime();
+                out.write(("GET /json-diff/v1/diff/" + id + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                count = record(latencies, count, start, read(in), 200, errors);
+            }
+        } catch (IOException | InterruptedException e) {
+            errors.incrementAndGet();
+        }
+        return Arrays.copyOf(latencies, count);
+    }
+
+    private static int record(long[] latencies, int count, long start, int status, int expected, AtomicInteger errors) {
+        if (status != expected) {
+            errors.incrementAndGet();
+        }
+        latencies[count] = System.nanoTime() - start;
+        return count + 1;
+    }
+
+    /**
+     * Reads a response and skips its body.
+     *
+     * @return The status code.
+     */
+    private static int read(InputStream in) throws IOException {
+        String status = readLine(in);
+        int length = 0;
+        for (String line = readLine(in); !line.isEmpty(); line = readLine(in)) {
+            if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                length = Integer.parseInt(line.substring(15).trim());
+            }
+        }
+        for (long skipped = 0; skipped < length; ) {
+            long n = in.skip(length - skipped);
+            if (n <= 0) {
+                throw new IOException("Connection closed");
+            }
+            skipped += n;
+        }
+        return Integer.parseInt(status.split(" ")[1]);
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int c = in.read(); c != '\n'; c = in.read()) {
+            if (c < 0) {
+                throw new IOException("Connection closed");
+            }
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        return line.toString();
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Marcio Branquinho Dutra <mdutra at gmail dot com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dutramb.jsondiff.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dutramb.jsondiff.model.Diff;
+import dutramb.jsondiff.model.Output;
+import dutramb.jsondiff.model.type.Result;
+import dutramb.jsondiff.ws.BinaryResult;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the Jackson serialization of an {@code Output} with a large
+ * {@code diffList}, against its compact binary form. Both return the number
+ * of bytes written.
+ *
+ * @author Marcio Branquinho Dutra
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class OutputSerializationBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int runs;
+
+    private ObjectMapper mapper;
+    private Output output;
+
+    @Setup
+    public void setup() {
+        List<Diff> diffList = new ArrayList<>(runs);
+        for (int i = 0; i < runs; i++) {
+            diffList.add(new Diff(i * 2, 1));
+        }
+        output = new Output(1);
+        output.setResult(Result.DIFFERENT);
+        output.setDiffList(diffList);
+        mapper = new ObjectMapper();
+    }
+
+    @Benchmark
+    public long serialize() throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        mapper.writeValue(out, output);
+        return out.count;
+    }
+
+    @Benchmark
+    public long serializeBinary() throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        BinaryResult.write(output, output.getDiffList().iterator(), Long.MAX_VALUE, out);
+        return out.count;
+    }
+
+    /**
+     * Discards the bytes written, keeping only their count.
+     */
+    private static class CountingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
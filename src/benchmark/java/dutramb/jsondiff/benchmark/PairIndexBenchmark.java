@@ -0,0 +1,86 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.benchmark;
+
+import dutramb.jsondiff.model.InputPair;
+import dutramb.jsondiff.repository.PairIndex;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares lookups in the {@code PairIndex} with the 
+ * {@code ConcurrentHashMap} it replaced.
+ *
+ * @author Marcio Branquinho Dutra
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class PairIndexBenchmark {
+
+    @Param({"1024", "4194304"})
+    public int ids;
+
+    private PairIndex index;
+    private ConcurrentMap<Integer, InputPair> map;
+
+    @Setup
+    public void setup() {
+        index = new PairIndex();
+        map = new ConcurrentHashMap<>();
+        for (int id = 0; id < ids; id++) {
+            InputPair pair = new InputPair(null, null, id);
+            index.compute(id, current -> pair);
+            map.put(id, pair);
+        }
+    }
+
+    @Benchmark
+    public InputPair pairIndexGet() {
+        return index.get(ThreadLocalRandom.current().nextInt(ids));
+    }
+
+    @Benchmark
+    public InputPair concurrentHashMapGet() {
+        return map.get(ThreadLocalRandom.current().nextInt(ids));
+    }
+}
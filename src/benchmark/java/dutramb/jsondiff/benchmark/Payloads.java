@@ -0,0 +1,93 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Marcio Branquinho Dutra <mdutra at gmail dot com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dutramb.jsondiff.benchmark;
+
+/**
+ * Builds base64-like payloads used by the benchmarks.
+ *
+ * @author Marcio Branquinho Dutra
+ */
+public final class Payloads {
+
+    private static final String ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+    /**
+     * How many characters of the right side differ from the left side.
+     */
+    public enum Density {
+        IDENTICAL,
+        ONE_MISMATCH,
+        ALTERNATING,
+        DIFFERENT;
+    }
+
+    private Payloads() {
+    }
+
+    /**
+     * @param size Number of characters.
+     * @return A value with {@code size} base64 characters.
+     */
+    public static String value(int size) {
+        char[] chars = new char[size];
+        for (int i = 0; i < size; i++) {
+            chars[i] = ALPHABET.charAt((i * 31 + i / 64) & 63);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Returns a copy of {@code value} changed according to {@code density}.
+     * The copy is never the same instance, so {@code equals} can't shortcut.
+     *
+     * @param value
+     * @param density
+     * @return
+     */
+    public static String change(String value, Density density) {
+        char[] chars = value.toCharArray();
+        switch (density) {
+            case ONE_MISMATCH:
+                flip(chars, chars.length / 2);
+                break;
+            case ALTERNATING:
+                for (int i = 0; i < chars.length; i += 2) {
+                    flip(chars, i);
+                }
+                break;
+            case DIFFERENT:
+                for (int i = 0; i < chars.length; i++) {
+                    flip(chars, i);
+                }
+                break;
+            default:
+                break;
+        }
+        return new String(chars);
+    }
+
+    private static void flip(char[] chars, int i) {
+        chars[i] = chars[i] == 'A' ? 'B' : 'A';
+    }
+}
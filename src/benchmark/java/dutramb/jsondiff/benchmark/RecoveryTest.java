@@ -0,0 +1,130 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.benchmark;
+
+import dutramb.jsondiff.model.Payload;
+import dutramb.jsondiff.repository.DurableRepository;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Measures the {@code DurableRepository}: writes acknowledged after the 
+ * group commit, and the startup recovery from the log alone and from a 
+ * snapshot.
+ * <p>
+ * Arguments: number of entries, one per side (10000000 by default, i.e. 
+ * 5000000 ids), number of writer threads (64 by default) and the data 
+ * directory (a new temporary one by default, deleted at the end). The heap
+ * must hold all entries, about 4 GB for the default.
+ *
+ * @author Marcio Branquinho Dutra
+ */
+public class RecoveryTest {
+
+    public static void main(String[] args) throws Exception {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        int writers = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        Path directory = args.length > 2 ? Paths.get(args[2]) : Files.createTempDirectory("json-diff-recovery");
+        int ids = entries / 2;
+
+        System.out.printf("%-22s %10s %14s%n", "phase", "time s", "entries/s");
+        write(directory, ids, writers);
+        System.gc();
+
+        long start = System.nanoTime();
+        DurableRepository recovered = new DurableRepository(directory, true, 10, 256L * 1024 * 1024, 0);
+        report("recover from log", start, entries);
+        check(recovered, ids);
+
+        start = System.nanoTime();
+        recovered.snapshot();
+        report("snapshot", start, entries);
+        recovered.close();
+        recovered = null;
+        System.gc();
+
+        start = System.nanoTime();
+        recovered = new DurableRepository(directory, true, 10, 256L * 1024 * 1024, 0);
+        report("recover from snapshot", start, entries);
+        check(recovered, ids);
+        recovered.close();
+
+        if (args.length <= 2) {
+            try (Stream<Path> files = Files.list(directory)) {
+                files.forEach(file -> file.toFile().delete());
+            }
+            Files.delete(directory);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Writes both sides of the ids from many threads, each write waiting 
+     * for the disk.
+     */
+    private static void write(Path directory, int ids, int writers) throws Exception {
+        DurableRepository repository = new DurableRepository(directory, true, 10, 256L * 1024 * 1024, 0);
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            int first = w;
+            futures.add(executor.submit(() -> {
+                for (int id = first; id < ids; id += writers) {
+                    repository.insertLeftPayload(id, value(id));
+                    repository.insertRightPayload(id, value(id + 1));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        report("write (group commit)", start, ids * 2);
+        repository.close();
+    }
+
+    private static Payload value(int id) {
+        return Payload.of(String.format("%012d", id));
+    }
+
+    private static void check(DurableRepository repository, int ids) throws IOException {
+        if (repository.getSize() != ids || !repository.getInputPair(ids - 1).getRight().equals(value(ids))) {
+            throw new IOException("Recovered " + repository.getSize() + " ids, expected " + ids);
+        }
+    }
+
+    private static void report(String phase, long start, int entries) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-22s %10.2f %14.0f%n", phase, seconds, entries / seconds);
+    }
+}
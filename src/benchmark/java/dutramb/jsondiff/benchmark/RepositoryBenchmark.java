@@ -0,0 +1,88 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Marcio Branquinho Dutra <mdutra at gmail dot com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dutramb.jsondiff.benchmark;
+
+import dutramb.jsondiff.model.Input;
+import dutramb.jsondiff.repository.MapRepository;
+import dutramb.jsondiff.repository.Repository;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@code MapRepository} inserts and reads while writers and readers
+ * contend on the same ids.
+ *
+ * @author Marcio Branquinho Dutra
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RepositoryBenchmark {
+
+    @Param({"1024", "1048576"})
+    public int ids;
+
+    private Repository repository;
+    private Input[] inputs;
+
+    @Setup
+    public void setup() {
+        repository = MapRepository.getInstance();
+        inputs = new Input[ids];
+        for (int id = 0; id < ids; id++) {
+            inputs[id] = new Input(id, "YWMvZGMhIQ==");
+            repository.insertLeftInput(inputs[id]);
+        }
+    }
+
+    @Benchmark
+    @Group("contention")
+    @GroupThreads(4)
+    public void insert() {
+        repository.insertLeftInput(inputs[ThreadLocalRandom.current().nextInt(ids)]);
+    }
+
+    @Benchmark
+    @Group("contention")
+    @GroupThreads(4)
+    public Input get() {
+        return repository.getLeftInput(ThreadLocalRandom.current().nextInt(ids));
+    }
+}
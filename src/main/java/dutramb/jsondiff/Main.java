@@ -23,14 +23,25 @@
  */
 package dutramb.jsondiff;
 
+import dutramb.jsondiff.cluster.Router;
+import dutramb.jsondiff.cluster.RouterFactory;
+import dutramb.jsondiff.config.ServerSettings;
+import dutramb.jsondiff.config.Settings;
 import dutramb.jsondiff.log.Logger;
+import dutramb.jsondiff.ws.DiffWS;
+import dutramb.jsondiff.ws.ForwardWS;
+import dutramb.jsondiff.ws.MetricsFilter;
+import dutramb.jsondiff.ws.MetricsWS;
+import dutramb.jsondiff.ws.RoutingFilter;
 import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.http.server.NetworkListener;
 import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
 import org.glassfish.jersey.server.ResourceConfig;
 
 import java.io.IOException;
 import java.net.URI;
 import java.util.Optional;
+import java.util.concurrent.Executors;
 import org.glassfish.jersey.jackson.JacksonFeature;
 
 /**
@@ -47,32 +58,76 @@ public class Main {
     public static final String BASE_URI;
 
     static {
-        host = Optional.ofNullable(System.getenv("JSONDIFF_HOSTNAME"));
-        port = Optional.ofNullable(System.getenv("JSONDIFF_PORT"));
+        host = Settings.get("JSONDIFF_HOSTNAME");
+        port = Settings.get("JSONDIFF_PORT");
         BASE_URI = "http://" + host.orElse("localhost") + ":" + port.orElse("8080") + "/json-diff/";
     }
 
     /**
-     * Starts Grizzly HTTP server exposing JAX-RS resources.
+     * Starts Grizzly HTTP server exposing JAX-RS resources. Requests are 
+     * handled by a pool of worker threads, or by virtual threads when
+     * {@code JSONDIFF_SERVER_MODE} is {@code virtual}.
      *
      * @return Grizzly HTTP server.
      */
     public static HttpServer startServer() {
+        return startServer(BASE_URI, "virtual".equalsIgnoreCase(Settings.get("JSONDIFF_SERVER_MODE").orElse("pool")));
+    }
+
+    /**
+     * Starts Grizzly HTTP server exposing JAX-RS resources at an URI.
+     *
+     * @param baseUri
+     * @param virtualThreads true to handle each request on a new virtual 
+     * thread instead of the worker thread pool.
+     * @return Grizzly HTTP server.
+     */
+    public static HttpServer startServer(String baseUri, boolean virtualThreads) {
+        return startServer(baseUri, virtualThreads, RouterFactory.create(Settings.get("JSONDIFF_NODE_URI").orElse(baseUri)));
+    }
+
+    /**
+     * Starts Grizzly HTTP server exposing JAX-RS resources at an URI, as one
+     * of several nodes sharing the ids.
+     *
+     * @param baseUri
+     * @param virtualThreads true to handle each request on a new virtual 
+     * thread instead of the worker thread pool.
+     * @param router Tells the node owning each id, null if this node owns
+     * all of them.
+     * @return Grizzly HTTP server.
+     */
+    public static HttpServer startServer(String baseUri, boolean virtualThreads, Router router) {
         HttpServer server = null;
         try {
-            // create a resource config that scans for JAX-RS resources and providers
-            // in dutramb.jsondiff package
-            final ResourceConfig rc = new ResourceConfig().packages("dutramb.jsondiff");
+            // create a resource config with the JAX-RS resources. They are not
+            // scanned: the scanner of this Jersey version can't read Java 21 classes
+            final ResourceConfig rc = new ResourceConfig().register(DiffWS.class)
+                    .register(MetricsWS.class).register(MetricsFilter.class);
 
             rc.register(JacksonFeature.class);
-            // create and start a new instance of grizzly http server
-            // exposing the Jersey application at BASE_URI
-            server = GrizzlyHttpServerFactory.createHttpServer(URI.create(BASE_URI), rc);
+            if (router != null) {
+                rc.register(new RoutingFilter(router)).register(new ForwardWS(router));
+                Logger.info("Routing ids among nodes", Main.class, "router", router);
+            }
+            // create a new instance of grizzly http server
+            // exposing the Jersey application at baseUri
+            server = GrizzlyHttpServerFactory.createHttpServer(URI.create(baseUri), rc, false);
+            ServerSettings settings = ServerSettings.getInstance();
+            for (NetworkListener listener : server.getListeners()) {
+                settings.apply(listener, virtualThreads);
+                if (virtualThreads) {
+                    listener.getTransport().setWorkerThreadPool(Executors.newVirtualThreadPerTaskExecutor());
+                }
+            }
+            server.start();
+            Logger.info("HTTP server settings", Main.class, "settings", settings);
 
-            Logger.info(String.format("JSON Diff app is available at %s... \nPress Ctrl+C to stop the service.", BASE_URI), Main.class);
+            Logger.info(String.format("JSON Diff app is available at %s (%s)... \nPress Ctrl+C to stop the service.", 
+                    baseUri, virtualThreads ? "virtual threads" : "worker pool"), Main.class);
 
         } catch (Exception e) {
-            Logger.severe("HttpServer was not created. Check json-diff environment variables.", Main.class, e, "BASE_URI", BASE_URI);
+            Logger.severe("HttpServer was not created. Check json-diff environment variables.", Main.class, e, "BASE_URI", baseUri);
         }
         return server;
     }
@@ -0,0 +1,119 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.cluster;
+
+import dutramb.jsondiff.model.XXHash64;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Assigns ids to members (shards or nodes) by consistent hashing. Each 
+ * member gets many points on a ring of 64-bit hashes, and an id belongs to 
+ * the member of the first point at or after the hash of the id. Adding or 
+ * removing a member moves only the ids of its points.
+ *
+ * @author Marcio Branquinho Dutra
+ * @param <T> Type of the members.
+ */
+public class HashRing<T> {
+
+    public static final int DEFAULT_POINTS = 128;
+
+    private final List<T> members;
+    private final long[] points;
+    private final int[] owners;
+
+    /**
+     * @param members They are placed on the ring by their {@code toString}, 
+     * so every process builds the same ring from the same names.
+     * @param pointsPerMember
+     */
+    public HashRing(List<T> members, int pointsPerMember) {
+        if (members.isEmpty() || pointsPerMember < 1) {
+            throw new IllegalArgumentException("A ring needs members and points");
+        }
+        this.members = Collections.unmodifiableList(new ArrayList<>(members));
+        int size = members.size() * pointsPerMember;
+        long[][] placed = new long[size][];
+        for (int m = 0; m < members.size(); m++) {
+            byte[] name = members.get(m).toString().getBytes(StandardCharsets.UTF_8);
+            for (int p = 0; p < pointsPerMember; p++) {
+                placed[m * pointsPerMember + p] = new long[]{XXHash64.hash(ByteBuffer.wrap(name), p), m};
+            }
+        }
+        Arrays.sort(placed, (a, b) -> Long.compare(a[0], b[0]));
+        this.points = new long[size];
+        this.owners = new int[size];
+        for (int i = 0; i < size; i++) {
+            points[i] = placed[i][0];
+            owners[i] = (int) placed[i][1];
+        }
+    }
+
+    public HashRing(List<T> members) {
+        this(members, DEFAULT_POINTS);
+    }
+
+    /**
+     * @param id
+     * @return The member owning the id.
+     */
+    public T get(int id) {
+        return members.get(owners[pointOf(hash(id))]);
+    }
+
+    /**
+     * @param id
+     * @return Position of the owner of the id in the member list.
+     */
+    public int ownerOf(int id) {
+        return owners[pointOf(hash(id))];
+    }
+
+    public List<T> getMembers() {
+        return members;
+    }
+
+    private int pointOf(long hash) {
+        int i = Arrays.binarySearch(points, hash);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return i == points.length ? 0 : i;
+    }
+
+    /**
+     * Spreads the id over 64 bits (splitmix64 finalizer).
+     */
+    private static long hash(int id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.cluster;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Routes the ids over a fixed list of nodes by consistent hashing. Every 
+ * node must be given the same list, so they agree on the owners.
+ *
+ * @author Marcio Branquinho Dutra
+ */
+public class RingRouter implements Router {
+
+    private final HashRing<URI> ring;
+    private final URI self;
+
+    /**
+     * @param nodes Base URIs of all nodes, this one included.
+     * @param self Base URI of this node.
+     */
+    public RingRouter(List<String> nodes, String self) {
+        List<URI> uris = new ArrayList<>();
+        for (String node : nodes) {
+            uris.add(normalize(node));
+        }
+        this.self = normalize(self);
+        if (!uris.contains(this.self)) {
+            throw new IllegalArgumentException("Node " + self + " is not in " + nodes);
+        }
+        this.ring = new HashRing<>(uris);
+    }
+
+    @Override
+    public URI route(int id) {
+        URI owner = ring.get(id);
+        return owner.equals(self) ? null : owner;
+    }
+
+    @Override
+    public URI getSelf() {
+        return self;
+    }
+
+    @Override
+    public List<URI> getNodes() {
+        return ring.getMembers();
+    }
+
+    /**
+     * The same node may be written with or without the last slash.
+     */
+    static URI normalize(String uri) {
+        String trimmed = uri.trim();
+        return URI.create(trimmed.endsWith("/") ? trimmed : trimmed + "/");
+    }
+
+    @Override
+    public String toString() {
+        return "self=" + self + " nodes=" + ring.getMembers();
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.cluster;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tells which json-diff node owns an id, when several processes share the 
+ * ids. Implementations are given to {@code Main.startServer}, or chosen by
+ * {@code RouterFactory}.
+ *
+ * @author Marcio Branquinho Dutra
+ */
+public interface Router {
+
+    /**
+     * @param id
+     * @return Base URI of the node owning the id, or null if it is this node.
+     */
+    public URI route(int id);
+
+    /**
+     * @return Base URI of this node.
+     */
+    public URI getSelf();
+
+    /**
+     * @return Base URIs of all nodes, this one included. Requests marked as
+     * forwarded are only trusted from their addresses.
+     */
+    public default List<URI> getNodes() {
+        return Collections.singletonList(getSelf());
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.cluster;
+
+import dutramb.jsondiff.config.Settings;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * Creates the router of a node from {@code JSONDIFF_NODES}, a comma 
+ * separated list of the base URIs of all nodes. Without it the node owns 
+ * every id. {@code JSONDIFF_ROUTER} chooses the implementation: {@code ring}
+ * (default) for {@code RingRouter}, or the name of a class implementing 
+ * {@code Router} with a public constructor taking the node list and the 
+ * base URI of this node.
+ *
+ * @author Marcio Branquinho Dutra
+ */
+public class RouterFactory {
+
+    private RouterFactory() {
+    }
+
+    /**
+     * @param self Base URI of this node.
+     * @return The router, or null if the node is alone.
+     */
+    public static Router create(String self) {
+        Optional<String> nodes = Settings.get("JSONDIFF_NODES");
+        if (!nodes.isPresent()) {
+            return null;
+        }
+        List<String> list = Arrays.stream(nodes.get().split(","))
+                .map(String::trim).filter(node -> !node.isEmpty()).collect(Collectors.toList());
+        String type = Settings.get("JSONDIFF_ROUTER").orElse("ring");
+        if ("ring".equalsIgnoreCase(type)) {
+            return new RingRouter(list, self);
+        }
+        try {
+            return (Router) Class.forName(type).getConstructor(List.class, String.class).newInstance(list, self);
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalArgumentException("Unknown router: " + type, e);
+        }
+    }
+}
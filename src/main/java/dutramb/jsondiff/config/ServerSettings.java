@@ -0,0 +1,152 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.config;
+
+import org.glassfish.grizzly.http.CompressionConfig;
+import org.glassfish.grizzly.http.server.NetworkListener;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransport;
+import org.glassfish.grizzly.threadpool.ThreadPoolConfig;
+
+/**
+ * Holds the settings of the HTTP server transport. Settings that are not 
+ * set keep the Grizzly defaults, as do the ones that are not valid numbers 
+ * or are out of range, with a warning.
+ * <ul>
+ * <li>{@code JSONDIFF_SELECTOR_THREADS}: selector runners of the transport.</li>
+ * <li>{@code JSONDIFF_WORKER_CORE_THREADS}, {@code JSONDIFF_WORKER_MAX_THREADS}
+ * and {@code JSONDIFF_WORKER_QUEUE}: worker pool sizes and queue limit (-1 
+ * for no limit). Not used with virtual threads.</li>
+ * <li>{@code JSONDIFF_KEEP_ALIVE_REQUESTS} (-1 for no limit) and 
+ * {@code JSONDIFF_KEEP_ALIVE_TIMEOUT}, in seconds.</li>
+ * <li>{@code JSONDIFF_MAX_POST_SIZE}: maximum request body, in bytes (-1 
+ * for no limit, the default).</li>
+ * <li>{@code JSONDIFF_COMPRESSION}: {@code off}, {@code on} (the default)
+ * or {@code force}, and {@code JSONDIFF_COMPRESSION_MIN_SIZE}, the smallest
+ * response to compress, in bytes. Responses are compressed with gzip for 
+ * clients that accept it.</li>
+ * </ul>
+ *
+ * @author Marcio Branquinho Dutra
+ */
+public class ServerSettings {
+
+    public static final int DEFAULT_COMPRESSION_MIN_SIZE = 1024;
+
+    private final Integer selectorThreads;
+    private final Integer workerCoreThreads;
+    private final Integer workerMaxThreads;
+    private final Integer workerQueue;
+    private final Integer keepAliveRequests;
+    private final Integer keepAliveTimeout;
+    private final long maxPostSize;
+    private final CompressionConfig.CompressionMode compression;
+    private final int compressionMinSize;
+
+    private ServerSettings() {
+        selectorThreads = getInteger("JSONDIFF_SELECTOR_THREADS", 1);
+        workerCoreThreads = getInteger("JSONDIFF_WORKER_CORE_THREADS", 0);
+        workerMaxThreads = getInteger("JSONDIFF_WORKER_MAX_THREADS", 1);
+        workerQueue = getInteger("JSONDIFF_WORKER_QUEUE", -1);
+        keepAliveRequests = getInteger("JSONDIFF_KEEP_ALIVE_REQUESTS", -1);
+        keepAliveTimeout = getInteger("JSONDIFF_KEEP_ALIVE_TIMEOUT", -1);
+        maxPostSize = Settings.getLong("JSONDIFF_MAX_POST_SIZE", -1);
+        compression = CompressionConfig.CompressionMode.fromString(Settings.get("JSONDIFF_COMPRESSION").orElse("on"));
+        compressionMinSize = Settings.getInt("JSONDIFF_COMPRESSION_MIN_SIZE", DEFAULT_COMPRESSION_MIN_SIZE);
+    }
+
+    private static class Holder {
+        private static final ServerSettings INSTANCE = new ServerSettings();
+    }
+
+    public static ServerSettings getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * @return The setting, or null to keep the Grizzly default if it is not
+     * set or not valid.
+     */
+    private static Integer getInteger(String name, int min) {
+        return Settings.getIntAtLeast(name, min).orElse(null);
+    }
+
+    /**
+     * @return The maximum request body, in bytes, or -1 for no limit.
+     */
+    public long getMaxPostSize() {
+        return maxPostSize;
+    }
+
+    /**
+     * Applies the settings to a listener that was not started yet.
+     *
+     * @param listener
+     * @param virtualThreads true if the worker pool is replaced by virtual 
+     * threads, so its settings don't apply.
+     */
+    public void apply(NetworkListener listener, boolean virtualThreads) {
+        TCPNIOTransport transport = listener.getTransport();
+        if (selectorThreads != null) {
+            transport.setSelectorRunnersCount(selectorThreads);
+        }
+        if (!virtualThreads && (workerCoreThreads != null || workerMaxThreads != null || workerQueue != null)) {
+            ThreadPoolConfig pool = transport.getWorkerThreadPoolConfig() == null 
+                    ? ThreadPoolConfig.defaultConfig() : transport.getWorkerThreadPoolConfig().copy();
+            if (workerMaxThreads != null) {
+                pool.setMaxPoolSize(workerMaxThreads);
+            }
+            if (workerCoreThreads != null) {
+                pool.setCorePoolSize(workerCoreThreads);
+            }
+            if (workerQueue != null) {
+                pool.setQueueLimit(workerQueue);
+            }
+            transport.setWorkerThreadPoolConfig(pool);
+        }
+        if (keepAliveRequests != null) {
+            listener.getKeepAlive().setMaxRequestsCount(keepAliveRequests);
+        }
+        if (keepAliveTimeout != null) {
+            listener.getKeepAlive().setIdleTimeoutInSeconds(keepAliveTimeout);
+        }
+        if (maxPostSize >= 0) {
+            listener.setMaxFormPostSize((int) Math.min(maxPostSize, Integer.MAX_VALUE));
+        }
+        listener.getCompressionConfig().setCompressionMode(compression);
+        listener.getCompressionConfig().setCompressionMinSize(compressionMinSize);
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder().append("selectorThreads=").append(selectorThreads)
+                .append(" workerCoreThreads=").append(workerCoreThreads)
+                .append(" workerMaxThreads=").append(workerMaxThreads)
+                .append(" workerQueue=").append(workerQueue)
+                .append(" keepAliveRequests=").append(keepAliveRequests)
+                .append(" keepAliveTimeout=").append(keepAliveTimeout)
+                .append(" maxPostSize=").append(maxPostSize)
+                .append(" compression=").append(compression)
+                .append(" compressionMinSize=").append(compressionMinSize).toString();
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.config;
+
+import dutramb.jsondiff.log.Logger;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.Properties;
+
+/**
+ * The {@code Settings} class gives access to the json-diff tuning knobs. 
+ * They are read from environment variables, e.g. {@code JSONDIFF_PORT}, or
+ * from Java system properties with the same name when the variable is not set.
+ * Settings missing in both are read from the properties file pointed by 
+ * {@code JSONDIFF_CONFIG}, if there is one, with the same names as keys.
+ * Invalid values are logged and replaced by the default value.
+ *
+ * @author Marcio Branquinho Dutra
+ */
+public class Settings {
+
+    public static final String CONFIG = "JSONDIFF_CONFIG";
+
+    private Settings() {
+    }
+
+    private static class Holder {
+        private static final Properties FILE = load(lookup(CONFIG));
+    }
+
+    /**
+     * @param name Name of the setting, e.g. JSONDIFF_PORT.
+     * @return The setting value, if it was set.
+     */
+    public static Optional<String> get(String name) {
+        String value = lookup(name);
+        if (value == null) {
+            value = Holder.FILE.getProperty(name);
+        }
+        return Optional.ofNullable(value).map(String::trim).filter(v -> !v.isEmpty());
+    }
+
+    private static String lookup(String name) {
+        String value = System.getenv(name);
+        return value == null ? System.getProperty(name) : value;
+    }
+
+    /**
+     * Reads the settings file. A missing or unreadable file is logged and 
+     * ignored.
+     */
+    private static Properties load(String path) {
+        Properties properties = new Properties();
+        if (path == null || path.trim().isEmpty()) {
+            return properties;
+        }
+        try (Reader reader = Files.newBufferedReader(Paths.get(path.trim()), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+            Logger.info("Settings file loaded", Settings.class, "path", path, "settings", properties.size());
+        } catch (IOException e) {
+            Logger.warn("Settings file not read, using environment settings only", Settings.class, e, "path", path);
+        }
+        return properties;
+    }
+
+    /**
+     * @param name
+     * @param defaultValue
+     * @return The setting, or the default value if it is not set, not a 
+     * number or out of the int range.
+     */
+    public static int getInt(String name, int defaultValue) {
+        Optional<String> value = get(name);
+        try {
+            return value.isPresent() ? Integer.parseInt(value.get()) : defaultValue;
+        } catch (NumberFormatException e) {
+            Logger.warn("Invalid number setting, using the default value", Settings.class, e,
+                    "name", name, "value", value.get(), "default", defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @param name
+     * @param min Smallest valid value.
+     * @return The setting, empty if it is not set, or if it is not a number
+     * or is smaller than {@code min}, in which case it is logged.
+     */
+    public static Optional<Integer> getIntAtLeast(String name, int min) {
+        Optional<String> value = get(name);
+        if (!value.isPresent()) {
+            return Optional.empty();
+        }
+        try {
+            int number = Integer.parseInt(value.get());
+            if (number >= min) {
+                return Optional.of(number);
+            }
+            Logger.warn("Number setting below its minimum, ignoring it", Settings.class, null,
+                    "name", name, "value", number, "min", min);
+        } catch (NumberFormatException e) {
+            Logger.warn("Invalid number setting, ignoring it", Settings.class, e, "name", name, "value", value.get());
+        }
+        return Optional.empty();
+    }
+
+    public static long getLong(String name, long defaultValue) {
+        Optional<String> value = get(name);
+        try {
+            return value.isPresent() ? Long.parseLong(value.get()) : defaultValue;
+        } catch (NumberFormatException e) {
+            Logger.warn("Invalid number setting, using the default value", Settings.class, e,
+                    "name", name, "value", value.get(), "default", defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public static boolean getBoolean(String name, boolean defaultValue) {
+        return get(name).map(Boolean::parseBoolean).orElse(defaultValue);
+    }
+}
@@ -23,47 +23,118 @@
  */
 package dutramb.jsondiff.log;
 
-import java.util.Optional;
 import java.util.logging.Handler;
 import java.util.logging.Level;
+import java.util.logging.LogRecord;
 
 /**
  * The {@code Logger} class is responsible to log. It offers easy access to a
  * {@code java.util.logging.Logger} instance and formatted messages.
+ * <p>
+ * The level is set by {@code JSONDIFF_LOG_LEVEL} (a {@code java.util.logging}
+ * level name, INFO by default). Messages below it are dropped before they are
+ * built, so disabled calls cost a level check and the array of their 
+ * arguments; calls on the request path check {@link #isDebugEnabled()} 
+ * first, so they cost just the check. Enabled messages are handed to
+ * a {@link RingBufferAppender} and written by a background thread, unless
+ * {@code JSONDIFF_LOG_ASYNC} is false. Values longer than
+ * {@code JSONDIFF_LOG_MAX_VALUE} characters are truncated.
+ * <p>
+ * These settings are read from the environment or system properties only,
+ * since {@code Settings} logs through this class.
  *
  * @author Marcio Branquinho Dutra <mdutra at gmail dot com>
  */
 public class Logger {
 
-    public static final Optional<String> level;
+    public static final Level level;
     private static final java.util.logging.Logger logger = java.util.logging.Logger.getLogger("dutramb.jsondiff");
+    private static final int MAX_VALUE_LENGTH;
+    private static final RingBufferAppender appender;
 
     static {
-        level = Optional.ofNullable(System.getenv("JSONDIFF_LOG_LEVEL"));
-        for (Handler h : logger.getHandlers()) {
-//            h.setLevel(Level.parse(level.orElse("INFO")));
-            h.setLevel(Level.FINE);
+        level = parseLevel(lookup("JSONDIFF_LOG_LEVEL"));
+        logger.setLevel(level);
+        for (Handler h : java.util.logging.Logger.getLogger("").getHandlers()) {
+            if (h.getLevel().intValue() > level.intValue()) {
+                h.setLevel(level);
+            }
+        }
+        int maxValueLength = 256;
+        try {
+            String value = lookup("JSONDIFF_LOG_MAX_VALUE");
+            maxValueLength = value == null ? maxValueLength : Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            logger.log(Level.WARNING, "Invalid JSONDIFF_LOG_MAX_VALUE, using " + maxValueLength, e);
+        }
+        MAX_VALUE_LENGTH = maxValueLength;
+        String async = lookup("JSONDIFF_LOG_ASYNC");
+        appender = async == null || Boolean.parseBoolean(async.trim()) ? new RingBufferAppender(logger, 8192) : null;
+    }
+
+    private static String lookup(String name) {
+        String value = System.getenv(name);
+        return value == null ? System.getProperty(name) : value;
+    }
+
+    private static Level parseLevel(String name) {
+        try {
+            return name == null || name.trim().isEmpty() ? Level.INFO : Level.parse(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            logger.log(Level.WARNING, "Invalid JSONDIFF_LOG_LEVEL " + name + ", using INFO", e);
+            return Level.INFO;
         }
     }
 
+    public static boolean isDebugEnabled() {
+        return logger.isLoggable(Level.FINE);
+    }
+
     public static void info(String title, Class c, Object... obj) {
-        logger.log(Level.INFO, composeMessage(c, title, obj));
+        log(Level.INFO, c, title, null, obj);
     }
 
     public static void warn(String title, Class c, Throwable e, Object... obj) {
-        logger.log(Level.WARNING, composeMessage(c, title, obj), e);
+        log(Level.WARNING, c, title, e, obj);
     }
 
     public static void severe(String title, Class c, Throwable e, Object... obj) {
-        logger.log(Level.SEVERE, composeMessage(c, title, obj), e);
+        log(Level.SEVERE, c, title, e, obj);
     }
 
     public static void debug(String title, Class c, Object... obj) {
-        logger.log(Level.FINE, composeMessage(c, title, obj));
+        log(Level.FINE, c, title, null, obj);
     }
 
     public static void debug(String title, Class c, Throwable e, Object... obj) {
-        logger.log(Level.FINE, composeMessage(c, title, obj), e);
+        log(Level.FINE, c, title, e, obj);
+    }
+
+    /**
+     * Waits until the messages logged so far are written. It is called on 
+     * shutdown, so the last messages are not lost.
+     */
+    public static void flush() {
+        if (appender != null) {
+            appender.flush();
+        }
+    }
+
+    private static void log(Level recordLevel, Class c, String title, Throwable e, Object... obj) {
+        if (logger.isLoggable(recordLevel)) {
+            publish(recordLevel, c, composeMessage(c, title, obj), e);
+        }
+    }
+
+    private static void publish(Level recordLevel, Class c, String message, Throwable e) {
+        LogRecord record = new LogRecord(recordLevel, message);
+        record.setLoggerName(logger.getName());
+        record.setSourceClassName(c.getName());
+        record.setSourceMethodName("");
+        record.setThrown(e);
+        if (appender == null || !appender.offer(record)) {
+            logger.log(record);
+        }
     }
 
     /**
@@ -97,10 +168,23 @@ public class Logger {
             strb.append(obj[i]);
             strb.append(":[");
             if ((i + 1) < obj.length) {
-                strb.append(obj[i + 1]);
+                strb.append(truncate(obj[i + 1] instanceof CharSequence
+                        ? (CharSequence) obj[i + 1] : String.valueOf(obj[i + 1])));
             }
             strb.append("] ");
         }
         return strb.toString();
     }
+
+    /**
+     * Cuts values longer than {@code JSONDIFF_LOG_MAX_VALUE}, keeping their 
+     * length.
+     */
+    static CharSequence truncate(CharSequence value) {
+        if (MAX_VALUE_LENGTH <= 0 || value == null || value.length() <= MAX_VALUE_LENGTH) {
+            return value;
+        }
+        return new StringBuilder(MAX_VALUE_LENGTH + 24).append(value, 0, MAX_VALUE_LENGTH)
+                .append("...(").append(value.length()).append(" chars)");
+    }
 }
@@ -0,0 +1,107 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Writes log records from a background thread, so the request threads don't 
+ * wait on the console or file handlers. Records wait in a bounded ring 
+ * buffer; when it is full, debug records are dropped and counted, and the 
+ * others are written by the caller.
+ *
+ * @author Marcio Branquinho Dutra
+ */
+class RingBufferAppender implements Runnable {
+
+    private final java.util.logging.Logger logger;
+    private final BlockingQueue<LogRecord> buffer;
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long written;
+
+    RingBufferAppender(java.util.logging.Logger logger, int capacity) {
+        this.logger = logger;
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+        Thread thread = new Thread(this, "jsondiff-log");
+        thread.setDaemon(true);
+        thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "jsondiff-log-flush"));
+    }
+
+    /**
+     * @param record
+     * @return false if the caller must write the record itself.
+     */
+    boolean offer(LogRecord record) {
+        queued.incrementAndGet();
+        if (buffer.offer(record)) {
+            return true;
+        }
+        queued.decrementAndGet();
+        if (record.getLevel().intValue() < Level.INFO.intValue()) {
+            dropped.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Waits, up to one second, until the records queued so far are written.
+     */
+    void flush() {
+        long target = queued.get();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (written < target && System.nanoTime() < deadline) {
+            Thread.yield();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                LogRecord record = buffer.take();
+                try {
+                    logger.log(record);
+                } catch (RuntimeException e) {
+                    // a broken handler must not stop the appender
+                } finally {
+                    written++;
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.logic;
+
+import dutramb.jsondiff.config.Settings;
+import dutramb.jsondiff.model.Output;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Compares many ids in parallel and hands each result over as soon as it is
+ * ready, so results come in the order they complete.
+ * <p>
+ * Comparisons run on the {@code ComputePool}, at most 
+ * {@code JSONDIFF_BATCH_PARALLELISM} of them at a time for a batch (the 
+ * number of processors by default), so a large batch never fills the pool
+ * queue. Comparisons never run on the calling thread: when the pool is 
+ * saturated by other work, the batch waits for its own running comparisons
+ * before submitting more, and fails if none of them is running.
+ *
+ * @author Marcio Branquinho Dutra
+ */
+public class BatchDiff {
+
+    /**
+     * Receives the results of a batch, one at a time, on the calling thread.
+     */
+    @FunctionalInterface
+    public interface Sink {
+
+        void accept(Output output) throws IOException;
+    }
+
+    private final ExecutorService executor;
+    private final int parallelism;
+
+    public BatchDiff(ExecutorService executor, int parallelism) {
+        this.executor = executor;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    private static class Holder {
+        private static final BatchDiff INSTANCE = new BatchDiff(ComputePool.getInstance(),
+                Settings.getInt("JSONDIFF_BATCH_PARALLELISM", Runtime.getRuntime().availableProcessors()));
+    }
+
+    public static BatchDiff getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Compares the ids and passes each result to the sink as it completes.
+     * Ids without both sides give an {@code Output} with no result.
+     *
+     * @param ids
+     * @param sink
+     * @throws IOException if the sink fails, a comparison fails or the pool
+     * is saturated while none of the batch comparisons is running.
+     */
+    public void compare(List<Integer> ids, Sink sink) throws IOException {
+        CompletionService<Output> completed = new ExecutorCompletionService<>(executor);
+        int next = 0;
+        int running = 0;
+        try {
+            while (next < ids.size() || running > 0) {
+                while (running < parallelism && next < ids.size()) {
+                    Integer id = ids.get(next++);
+                    try {
+                        completed.submit(() -> result(id));
+                        running++;
+                    } catch (RejectedExecutionException e) {
+                        if (running == 0) {
+                            throw new IOException("Batch comparison rejected, compute pool is saturated", e);
+                        }
+                        next--;
+                        break;
+                    }
+                }
+                if (running > 0) {
+                    Output output = completed.take().get();
+                    running--;
+                    sink.accept(output);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Batch comparison interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException("Batch comparison failed", e.getCause());
+        }
+    }
+
+    /**
+     * Reads the result from the cache or computes it. It doesn't wait for 
+     * background comparisons: they wait in the same pool, so pool threads 
+     * waiting for them could stall it.
+     */
+    private static Output result(Integer id) {
+        Output output = new Comparator().compare(id);
+        return output == null ? new Output(id) : output;
+    }
+}
@@ -24,12 +24,22 @@
 package dutramb.jsondiff.logic;
 
 import dutramb.jsondiff.log.Logger;
+import dutramb.jsondiff.metrics.Counter;
+import dutramb.jsondiff.metrics.Histogram;
+import dutramb.jsondiff.metrics.Metrics;
 import dutramb.jsondiff.model.Diff;
+import dutramb.jsondiff.model.DiffRuns;
 import dutramb.jsondiff.model.Input;
+import dutramb.jsondiff.model.InputPair;
+import dutramb.jsondiff.model.MerkleTree;
 import dutramb.jsondiff.model.Output;
+import dutramb.jsondiff.model.Payload;
 import dutramb.jsondiff.model.type.Result;
-import dutramb.jsondiff.repository.MapRepository;
-import java.util.LinkedList;
+import dutramb.jsondiff.repository.RepositoryFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -39,69 +49,264 @@ import java.util.List;
  */
 public class Comparator {
 
+    private static final Histogram LATENCY = Metrics.getInstance().histogram("jsondiff_compare_seconds",
+            "Time to get a comparison result, cached or computed.", 1e-9);
+    private static final Histogram RUNS = Metrics.getInstance().histogram("jsondiff_diff_runs",
+            "Number of differences of the DIFFERENT results computed.", 1);
+    private static final Counter[] RESULTS = new Counter[Result.values().length];
+
+    static {
+        for (Result result : Result.values()) {
+            RESULTS[result.ordinal()] = Metrics.getInstance().counter("jsondiff_comparisons_total",
+                    "Comparisons computed, by result.", "result", result.name());
+        }
+    }
+
     /**
      * Compares two data sequence according to the informed id.
      * It compares only if both input (left and right) is found for the same id.
+     * Results are kept in the {@code ResultCache} until one of the sides is 
+     * replaced.
      * 
      * @param id
      * @return <p>Null if both or at least one input (left or right) are null.
      * <p>Output with all comparison data.
      */
     public Output compare(Integer id) {
+        return compare(id, RepositoryFactory.getInstance().getInputPair(id));
+    }
+
+    /**
+     * Compares the inputs of a pair already read from the repository.
+     * 
+     * @param id
+     * @param pair Both inputs of the id. It may be null.
+     * @return <p>Null if both or at least one input (left or right) are null.
+     * <p>Output with all comparison data.
+     */
+    public Output compare(Integer id, InputPair pair) {
 
         Output output = null;
 
-        Input inputLeft = MapRepository.getInstance().getLeftInput(id);
-        Input inputRight = MapRepository.getInstance().getRightInput(id);
+        Payload left = pair == null ? null : pair.getLeft();
+        Payload right = pair == null ? null : pair.getRight();
 
-        Logger.debug("comparing", this.getClass(), "id", id, "left", inputLeft, "right", inputRight);
+        if (Logger.isDebugEnabled()) {
+            Logger.debug("comparing", this.getClass(), "id", id, "left", left, "right", right);
+        }
         
-        if (inputLeft != null && inputRight != null) {
-            output = new Output(id);
-            if (inputLeft.getValue().equals(inputRight.getValue())) {
-                output.setResult(Result.EQUAL);
-            } else if (inputLeft.getValue().length() != inputRight.getValue().length()) {
-                output.setResult(Result.DIFFERENT_SIZE);
-            } else {
-                output.setResult(Result.DIFFERENT);
-                output.setDiffList(processDiff(inputLeft, inputRight));
+        if (left != null && right != null) {
+            long start = System.nanoTime();
+            output = ResultCache.getInstance().get(id, pair.getVersion());
+            if (output == null) {
+                output = compute(id, pair);
             }
+            LATENCY.recordSince(start);
         }
 
-        Logger.debug("comparison result", this.getClass(), "output", output);
+        if (Logger.isDebugEnabled()) {
+            Logger.debug("comparison result", this.getClass(), "output", output);
+        }
         
         return output;
     }
 
-    
+    /**
+     * Compares the bytes the inputs of a pair encode, instead of their 
+     * base64 characters, so offsets and lengths are in decoded bytes. Each
+     * side is decoded for this comparison only, without block hashes, and 
+     * the result is kept in the {@code ResultCache} apart from the result 
+     * of the characters.
+     * 
+     * @param id
+     * @param pair Both inputs of the id. It may be null.
+     * @return <p>Null if both or at least one input (left or right) are null.
+     * <p>Output with all comparison data.
+     * @throws IllegalArgumentException if a side is not valid base64.
+     */
+    public Output compareDecoded(Integer id, InputPair pair) {
+        if (pair == null || !pair.isComplete()) {
+            return null;
+        }
+        long start = System.nanoTime();
+        Output output = ResultCache.getInstance().get(id, pair.getVersion(), true);
+        if (output == null) {
+            output = computeDecoded(id, pair);
+        }
+        LATENCY.recordSince(start);
+        if (Logger.isDebugEnabled()) {
+            Logger.debug("decoded comparison result", this.getClass(), "output", output);
+        }
+        return output;
+    }
+
+    /**
+     * Compares the decoded bytes of a complete pair without looking at the 
+     * cache, and caches the result.
+     *
+     * @throws IllegalArgumentException if a side is not valid base64.
+     */
+    Output computeDecoded(Integer id, InputPair pair) {
+        InputPair decoded = pair.decoded();
+        Output output = compare(id, decoded.getLeft(), decoded.getRight());
+        ResultCache.getInstance().put(id, pair.getVersion(), true, output);
+        return output;
+    }
+
+    /**
+     * Compares a complete pair without looking at the cache, and caches the
+     * result.
+     */
+    Output compute(Integer id, InputPair pair) {
+        Output output = compare(id, pair.getLeft(), pair.getRight());
+        ResultCache.getInstance().put(id, pair.getVersion(), output);
+        RESULTS[output.getResult().ordinal()].increment();
+        if (output.getDiffList() != null) {
+            RUNS.record(output.getDiffList().size());
+        }
+        return output;
+    }
+
+    /**
+     * Sizes and hashes are computed once, when the payloads are stored, so 
+     * EQUAL and DIFFERENT_SIZE are answered without reading the bytes and 
+     * DIFFERENT reads them just once, to find the differences.
+     */
+    private Output compare(Integer id, Payload left, Payload right) {
+        Output output = new Output(id);
+        output.setResult(classify(left, right));
+        if (output.getResult() == Result.DIFFERENT) {
+            output.setDiffList(processDiff(left, right));
+        }
+        return output;
+    }
+
+    /**
+     * Tells the result type of the comparison from the sizes and hashes, 
+     * without reading the bytes.
+     * 
+     * @param left Data came from left endpoint.
+     * @param right Data came from right endpoint.
+     * @return
+     */
+    public Result classify(Payload left, Payload right) {
+        if (left.length() != right.length()) {
+            return Result.DIFFERENT_SIZE;
+        } else if (left.getHash() == right.getHash()) {
+            return Result.EQUAL;
+        }
+        return Result.DIFFERENT;
+    }
+
     /**
      * Compares two sequences of base64 data and computes the offsets and 
-     * lengths of the differences.
+     * lengths of the differences. Values with characters that don't fit in 
+     * a {@code Payload}, i.e. above U+00FF, are compared char by char.
      * 
      * @param inputLeft Data came from left endpoint.
      * @param inputRight Data came from right endpoint.
      * @return a list of {@code Diff} with offsets and lengths of differences.
      */
     public List<Diff> processDiff(Input inputLeft, Input inputRight) {
-        List<Diff> diffList = new LinkedList<>();
+        String left = inputLeft.getValue();
+        String right = inputRight.getValue();
+        if (isLatin1(left) && isLatin1(right)) {
+            return processDiff(Payload.of(left), Payload.of(right));
+        }
 
-        int length = 0;
+        DiffRuns diffList = new DiffRuns();
+        int length = Math.min(left.length(), right.length());
         int offset = -1;
-        for (int i = 0; i <= inputLeft.getValue().length(); i++) {
-            if (i < inputLeft.getValue().length()
-                    && inputLeft.getValue().charAt(i) != inputRight.getValue().charAt(i)) {
-                length++;
+        for (int i = 0; i < length; i++) {
+            if (left.charAt(i) != right.charAt(i)) {
                 if (offset < 0) {
                     offset = i;
                 }
-            } else if (offset != -1) {
-                diffList.add(new Diff(offset, length));
-                length = 0;
+            } else if (offset >= 0) {
+                diffList.add(offset, i - offset);
                 offset = -1;
             }
         }
+        if (offset >= 0) {
+            diffList.add(offset, length - offset);
+        }
+        return diffList;
+    }
+
+    private static boolean isLatin1(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) > 0xFF) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares two payloads of base64 data and computes the offsets and 
+     * lengths of the differences. Payloads of the same size compare their 
+     * block hashes first, so only the blocks that changed are read. Ranges 
+     * are scanned by a {@code DiffScanner}, which compares 8 characters at a 
+     * time, or in parallel by {@code ParallelDiff} when they are large.
+     * 
+     * @param left Data came from left endpoint.
+     * @param right Data came from right endpoint.
+     * @return a list of {@code Diff} with offsets and lengths of differences.
+     */
+    public DiffRuns processDiff(Payload left, Payload right) {
+        ByteBuffer leftBuffer = left.asBuffer();
+        ByteBuffer rightBuffer = right.asBuffer();
 
+        DiffRuns diffList = new DiffRuns();
+        for (int[] range : ranges(left, right, 0)) {
+            processDiff(leftBuffer, rightBuffer, range[0], range[1], diffList);
+        }
         return diffList;
     }
+
+    /**
+     * Iterates over the differences of two payloads, computing them while 
+     * they are read, from a position on. Nothing is cached.
+     * 
+     * @param left Data came from left endpoint.
+     * @param right Data came from right endpoint.
+     * @param from Position where the scan starts. A difference crossing it 
+     * is reported from it on.
+     * @return the differences in ascending order of offset.
+     */
+    public Iterator<Diff> iterateDiff(Payload left, Payload right, int from) {
+        return new DiffIterator(left.asBuffer(), right.asBuffer(), ranges(left, right, from));
+    }
+
+    /**
+     * Gives the ranges that may hold differences: the changed blocks, if 
+     * both payloads have comparable block hashes, or the whole payloads.
+     */
+    private List<int[]> ranges(Payload left, Payload right, int from) {
+        int length = Math.min(left.length(), right.length());
+        MerkleTree leftTree = left.length() == right.length() ? left.getTree() : null;
+        if (leftTree == null || !leftTree.isComparable(right.getTree())) {
+            return from < length ? Collections.singletonList(new int[]{from, length}) : Collections.<int[]>emptyList();
+        }
+        List<int[]> ranges = new ArrayList<>();
+        for (int[] range : leftTree.mismatches(right.getTree())) {
+            if (range[1] > from) {
+                ranges.add(new int[]{Math.max(range[0], from), range[1]});
+            }
+        }
+        return ranges;
+    }
+
+    private void processDiff(ByteBuffer left, ByteBuffer right, int from, int to, DiffRuns diffList) {
+        if (ParallelDiff.getInstance().accepts(to - from)) {
+            diffList.join(ParallelDiff.getInstance().diff(left, right, from, to));
+            return;
+        }
+
+        DiffScanner scanner = new DiffScanner(left, right, from, to);
+        while (scanner.next()) {
+            diffList.add(scanner.getOffset(), scanner.getLength());
+        }
+    }
     
 }
@@ -0,0 +1,80 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.logic;
+
+import dutramb.jsondiff.config.Settings;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Provides the bounded executor where comparisons run out of the HTTP worker
+ * threads.
+ * <p>
+ * It has a fixed number of threads ({@code JSONDIFF_COMPUTE_THREADS}, the
+ * number of processors by default) and a bounded queue
+ * ({@code JSONDIFF_COMPUTE_QUEUE}). When both are full, new tasks are 
+ * rejected with a {@code RejectedExecutionException}.
+ *
+ * @author Marcio Branquinho Dutra
+ */
+public class ComputePool {
+
+    public static final int DEFAULT_QUEUE_SIZE = 256;
+
+    private ComputePool() {
+    }
+
+    private static class Holder {
+        private static final ExecutorService INSTANCE = create("json-diff-compute",
+                Settings.getInt("JSONDIFF_COMPUTE_THREADS", Runtime.getRuntime().availableProcessors()),
+                Settings.getInt("JSONDIFF_COMPUTE_QUEUE", DEFAULT_QUEUE_SIZE));
+    }
+
+    public static ExecutorService getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Creates a bounded executor with daemon threads.
+     *
+     * @param name Prefix of the thread names.
+     * @param threads Number of threads.
+     * @param queueSize Maximum number of waiting tasks.
+     * @return
+     */
+    public static ExecutorService create(String name, int threads, int queueSize) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = task -> {
+            Thread thread = new Thread(task, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueSize)), factory, new ThreadPoolExecutor.AbortPolicy());
+    }
+}
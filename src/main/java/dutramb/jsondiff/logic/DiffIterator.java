@@ -0,0 +1,84 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.logic;
+
+import dutramb.jsondiff.model.Diff;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Produces the differences of two payloads one at a time, so they never 
+ * have to be held in a list at once.
+ * <p>
+ * Only the given byte ranges are scanned, in order, by a {@code DiffScanner}.
+ * Ranges must be ascending and must not touch each other, otherwise a run 
+ * crossing their boundary would come out split in two.
+ *
+ * @author Marcio Branquinho Dutra
+ */
+public class DiffIterator implements Iterator<Diff> {
+
+    private final ByteBuffer left;
+    private final ByteBuffer right;
+    private final Iterator<int[]> ranges;
+    private DiffScanner scanner;
+    private Diff next;
+
+    /**
+     * @param left Data came from left endpoint.
+     * @param right Data came from right endpoint.
+     * @param ranges The ranges to scan, as {@code {from, to}} pairs.
+     */
+    public DiffIterator(ByteBuffer left, ByteBuffer right, Iterable<int[]> ranges) {
+        this.left = left;
+        this.right = right;
+        this.ranges = ranges.iterator();
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null) {
+            if (scanner != null && scanner.next()) {
+                next = new Diff(scanner.getOffset(), scanner.getLength());
+            } else if (ranges.hasNext()) {
+                int[] range = ranges.next();
+                scanner = new DiffScanner(left, right, range[0], range[1]);
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Diff next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Diff diff = next;
+        next = null;
+        return diff;
+    }
+}
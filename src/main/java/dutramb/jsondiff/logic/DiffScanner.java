@@ -0,0 +1,156 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.logic;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Finds the runs of different bytes between two sequences of the same length,
+ * one run at a time.
+ * <p>
+ * Bytes are compared 8 at a time through {@code long} reads, so long equal
+ * stretches are skipped one word per step and the end of a differing run is
+ * found with a zero-byte test on the XOR of both words. Per-byte work only
+ * happens on the last few bytes of the scanned range.
+ * <p>
+ * The scanner uses absolute reads only, so the buffers it receives are never
+ * modified and may be shared.
+ *
+ * @author Marcio Branquinho Dutra
+ */
+public class DiffScanner {
+
+    private static final long LOW_BITS = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    private final ByteBuffer left;
+    private final ByteBuffer right;
+    private final int end;
+    private int position;
+    private int offset = -1;
+    private int length;
+
+    /**
+     * Scans the whole content of both buffers.
+     *
+     * @param left Data came from left endpoint.
+     * @param right Data came from right endpoint.
+     */
+    public DiffScanner(ByteBuffer left, ByteBuffer right) {
+        this(left, right, 0, Math.min(left.limit(), right.limit()));
+    }
+
+    /**
+     * Scans the range {@code [from, to)} of both buffers. Runs are clipped to
+     * the range boundaries.
+     *
+     * @param left Data came from left endpoint.
+     * @param right Data came from right endpoint.
+     * @param from First index to compare.
+     * @param to Index after the last one to compare.
+     */
+    public DiffScanner(ByteBuffer left, ByteBuffer right, int from, int to) {
+        // little endian: the byte at the lowest index is the least significant,
+        // so trailing zero counts point at the first byte of the word.
+        this.left = left.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.right = right.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.position = from;
+        this.end = to;
+    }
+
+    /**
+     * Moves to the next run of different bytes.
+     *
+     * @return true if a run was found, false if the end of the range was
+     * reached.
+     */
+    public boolean next() {
+        int start = mismatch(position);
+        if (start >= end) {
+            position = end;
+            offset = -1;
+            length = 0;
+            return false;
+        }
+        position = match(start + 1);
+        offset = start;
+        length = position - start;
+        return true;
+    }
+
+    /**
+     * @return The index where the current run starts.
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return The quantity of different bytes of the current run.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the first index, starting at {@code i}, where both sequences
+     * differ, or the end of the range if there is none.
+     */
+    private int mismatch(int i) {
+        for (; i + Long.BYTES <= end; i += Long.BYTES) {
+            long x = left.getLong(i) ^ right.getLong(i);
+            if (x != 0) {
+                return i + (Long.numberOfTrailingZeros(x) >>> 3);
+            }
+        }
+        for (; i < end; i++) {
+            if (left.get(i) != right.get(i)) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Returns the first index, starting at {@code i}, where both sequences
+     * are equal, or the end of the range if there is none.
+     */
+    private int match(int i) {
+        for (; i + Long.BYTES <= end; i += Long.BYTES) {
+            long x = left.getLong(i) ^ right.getLong(i);
+            // flags the zero bytes of x; exact for the least significant one
+            long zeros = (x - LOW_BITS) & ~x & HIGH_BITS;
+            if (zeros != 0) {
+                return i + (Long.numberOfTrailingZeros(zeros) >>> 3);
+            }
+        }
+        for (; i < end; i++) {
+            if (left.get(i) == right.get(i)) {
+                return i;
+            }
+        }
+        return end;
+    }
+}
@@ -0,0 +1,207 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.logic;
+
+import dutramb.jsondiff.config.Settings;
+import dutramb.jsondiff.log.Logger;
+import dutramb.jsondiff.model.InputPair;
+import dutramb.jsondiff.model.Output;
+import dutramb.jsondiff.model.type.Result;
+import dutramb.jsondiff.repository.RepositoryFactory;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Computes comparisons in background as soon as both sides of an id are
+ * stored, so the result request only has to read it.
+ * <p>
+ * It is enabled by {@code JSONDIFF_EAGER_DIFF=true}. Comparisons run on the
+ * {@code ComputePool} and their results are kept by the {@code ResultCache}.
+ * When the pool is saturated the comparison is not scheduled and it is 
+ * submitted again by the result request, as it happens when the mode is 
+ * disabled. Comparisons never run on the caller: when the pool is still 
+ * saturated, the result fails with a {@code RejectedExecutionException}.
+ *
+ * @author Marcio Branquinho Dutra
+ */
+public class DiffScheduler {
+
+    private final ExecutorService executor;
+    private final boolean enabled;
+    private final ConcurrentMap<Integer, Pending> pending = new ConcurrentHashMap<>();
+
+    public DiffScheduler(ExecutorService executor, boolean enabled) {
+        this.executor = executor;
+        this.enabled = enabled;
+    }
+
+    private static class Holder {
+        private static final DiffScheduler INSTANCE = new DiffScheduler(ComputePool.getInstance(),
+                Settings.getBoolean("JSONDIFF_EAGER_DIFF", false));
+    }
+
+    public static DiffScheduler getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Schedules the comparison of the id if both sides are stored. A 
+     * comparison still waiting for older data of the id is cancelled.
+     *
+     * @param id
+     */
+    public void schedule(Integer id) {
+        if (!enabled) {
+            return;
+        }
+        InputPair pair = RepositoryFactory.getInstance().getInputPair(id);
+        if (pair == null || !pair.isComplete()) {
+            return;
+        }
+        Pending task = new Pending(id, pair);
+        Pending previous = pending.put(id, task);
+        if (previous != null) {
+            previous.cancel(false);
+        }
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            pending.remove(id, task);
+            if (Logger.isDebugEnabled()) {
+                Logger.debug("comparison not scheduled, compute pool is saturated", this.getClass(), "id", id);
+            }
+        }
+    }
+
+    /**
+     * Returns the comparison result of the id without blocking the caller on
+     * the comparison. Results that are cheap to get (cached, equal or of 
+     * different sizes) are completed right away; comparisons running in 
+     * background are joined; the others are computed on the executor.
+     *
+     * @param id
+     * @return The result, or null if both or at least one input (left or 
+     * right) are null. It fails with {@code RejectedExecutionException} if
+     * the executor is saturated.
+     */
+    public CompletableFuture<Output> getResultAsync(Integer id) {
+        InputPair pair = RepositoryFactory.getInstance().getInputPair(id);
+        if (pair == null || !pair.isComplete()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Pending task = pending.get(id);
+        if (task != null && task.version == pair.getVersion()) {
+            return task.completion.handle((output, error) -> output)
+                    .thenCompose(output -> output != null ? CompletableFuture.completedFuture(output) : computeAsync(id, pair));
+        }
+        return computeAsync(id, pair);
+    }
+
+    /**
+     * Returns the comparison result of the bytes the inputs of the id 
+     * encode, read from the cache or computed on the executor.
+     *
+     * @param id
+     * @return The result, or null if both or at least one input (left or 
+     * right) are null. It fails with {@code IllegalArgumentException} if a 
+     * side is not valid base64 and with {@code RejectedExecutionException}
+     * if the executor is saturated.
+     */
+    public CompletableFuture<Output> getDecodedResultAsync(Integer id) {
+        InputPair pair = RepositoryFactory.getInstance().getInputPair(id);
+        if (pair == null || !pair.isComplete()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Output output = ResultCache.getInstance().get(id, pair.getVersion(), true);
+        if (output != null) {
+            return CompletableFuture.completedFuture(output);
+        }
+        Comparator comparator = new Comparator();
+        return submit(id, () -> comparator.computeDecoded(id, pair));
+    }
+
+    private CompletableFuture<Output> computeAsync(Integer id, InputPair pair) {
+        Comparator comparator = new Comparator();
+        Output output = ResultCache.getInstance().get(id, pair.getVersion());
+        if (output != null) {
+            return CompletableFuture.completedFuture(output);
+        }
+        if (comparator.classify(pair.getLeft(), pair.getRight()) != Result.DIFFERENT) {
+            return CompletableFuture.completedFuture(comparator.compute(id, pair));
+        }
+        return submit(id, () -> comparator.compute(id, pair));
+    }
+
+    private CompletableFuture<Output> submit(Integer id, Supplier<Output> comparison) {
+        try {
+            return CompletableFuture.supplyAsync(comparison, executor);
+        } catch (RejectedExecutionException e) {
+            if (Logger.isDebugEnabled()) {
+                Logger.debug("comparison rejected, compute pool is saturated", this.getClass(), "id", id);
+            }
+            CompletableFuture<Output> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(e);
+            return rejected;
+        }
+    }
+
+    /**
+     * A comparison waiting or running in background. It leaves the pending
+     * map as soon as it is done, the result is kept by the cache.
+     */
+    private class Pending extends FutureTask<Output> {
+
+        private final Integer id;
+        private final long version;
+        /**
+         * Completed with the task, for callers that don't block on it.
+         */
+        private final CompletableFuture<Output> completion = new CompletableFuture<>();
+
+        private Pending(Integer id, InputPair pair) {
+            super(() -> new Comparator().compare(id, pair));
+            this.id = id;
+            this.version = pair.getVersion();
+        }
+
+        @Override
+        protected void done() {
+            pending.remove(id, this);
+            try {
+                completion.complete(get());
+            } catch (ExecutionException e) {
+                completion.completeExceptionally(e.getCause());
+            } catch (CancellationException | InterruptedException e) {
+                completion.cancel(false);
+            }
+        }
+    }
+}
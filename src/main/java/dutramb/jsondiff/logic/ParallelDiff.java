@@ -0,0 +1,172 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.logic;
+
+import dutramb.jsondiff.config.Settings;
+import dutramb.jsondiff.model.DiffRuns;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Computes the differences of large payloads in parallel.
+ * <p>
+ * The payloads are split in chunks that are scanned by a dedicated 
+ * {@code ForkJoinPool}, so the HTTP worker threads are never used for it. 
+ * Runs crossing a chunk boundary come out split in two and are joined back,
+ * so the result is the same as the sequential scan.
+ * <p>
+ * Settings: {@code JSONDIFF_PARALLEL_THREADS} (the number of processors by 
+ * default), {@code JSONDIFF_PARALLEL_THRESHOLD}, the payload size from which
+ * the parallel scan is used (0 disables it), and 
+ * {@code JSONDIFF_PARALLEL_CHUNK_SIZE}.
+ *
+ * @author Marcio Branquinho Dutra
+ */
+public class ParallelDiff {
+
+    public static final int DEFAULT_THRESHOLD = 8 * 1024 * 1024;
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    private final ForkJoinPool pool;
+    private final int threshold;
+    private final int chunkSize;
+
+    public ParallelDiff(ForkJoinPool pool, int threshold, int chunkSize) {
+        this.pool = pool;
+        this.threshold = threshold;
+        this.chunkSize = chunkSize;
+    }
+
+    private static class Holder {
+        private static final ParallelDiff INSTANCE = new ParallelDiff(
+                createPool(Settings.getInt("JSONDIFF_PARALLEL_THREADS", Runtime.getRuntime().availableProcessors())),
+                Settings.getInt("JSONDIFF_PARALLEL_THRESHOLD", DEFAULT_THRESHOLD),
+                Settings.getInt("JSONDIFF_PARALLEL_CHUNK_SIZE", DEFAULT_CHUNK_SIZE));
+    }
+
+    public static ParallelDiff getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Creates a pool whose threads are named after json-diff.
+     *
+     * @param threads
+     * @return
+     */
+    public static ForkJoinPool createPool(int threads) {
+        return new ForkJoinPool(threads, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("json-diff-parallel-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+    }
+
+    /**
+     * @param length Size of the payloads.
+     * @return true if payloads of this size should be scanned in parallel.
+     */
+    public boolean accepts(int length) {
+        return threshold > 0 && length >= threshold;
+    }
+
+    /**
+     * Finds the runs of different bytes, scanning the chunks in parallel.
+     *
+     * @param left Data came from left endpoint.
+     * @param right Data came from right endpoint.
+     * @param length Size of both sequences.
+     * @return a list of {@code Diff} with offsets and lengths of differences.
+     */
+    public DiffRuns diff(ByteBuffer left, ByteBuffer right, int length) {
+        return diff(left, right, 0, length);
+    }
+
+    /**
+     * Finds the runs of different bytes in the range {@code [from, to)}, 
+     * scanning its chunks in parallel.
+     *
+     * @param left Data came from left endpoint.
+     * @param right Data came from right endpoint.
+     * @param from
+     * @param to
+     * @return a list of {@code Diff} with offsets and lengths of differences.
+     */
+    public DiffRuns diff(ByteBuffer left, ByteBuffer right, int from, int to) {
+        int chunks = (int) ((to - from + (long) chunkSize - 1) / chunkSize);
+        DiffRuns[] results = new DiffRuns[chunks];
+        pool.invoke(new ScanTask(left, right, from, to, results, 0, chunks));
+
+        DiffRuns diffList = new DiffRuns();
+        for (DiffRuns chunk : results) {
+            diffList.join(chunk);
+        }
+        return diffList;
+    }
+
+    /**
+     * Scans a range of chunks, splitting it in halves until a single chunk
+     * is left.
+     */
+    private class ScanTask extends RecursiveAction {
+
+        private final ByteBuffer left;
+        private final ByteBuffer right;
+        private final int start;
+        private final int end;
+        private final DiffRuns[] results;
+        private final int firstChunk;
+        private final int endChunk;
+
+        private ScanTask(ByteBuffer left, ByteBuffer right, int start, int end, DiffRuns[] results, int firstChunk, int endChunk) {
+            this.left = left;
+            this.right = right;
+            this.start = start;
+            this.end = end;
+            this.results = results;
+            this.firstChunk = firstChunk;
+            this.endChunk = endChunk;
+        }
+
+        @Override
+        protected void compute() {
+            if (endChunk - firstChunk > 1) {
+                int middle = (firstChunk + endChunk) >>> 1;
+                invokeAll(new ScanTask(left, right, start, end, results, firstChunk, middle),
+                        new ScanTask(left, right, start, end, results, middle, endChunk));
+                return;
+            }
+            int from = (int) (start + (long) firstChunk * chunkSize);
+            int to = (int) Math.min((long) from + chunkSize, end);
+            DiffRuns diffList = new DiffRuns();
+            DiffScanner scanner = new DiffScanner(left, right, from, to);
+            while (scanner.next()) {
+                diffList.add(scanner.getOffset(), scanner.getLength());
+            }
+            results[firstChunk] = diffList;
+        }
+    }
+}
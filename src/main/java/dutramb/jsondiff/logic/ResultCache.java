@@ -0,0 +1,287 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.logic;
+
+import dutramb.jsondiff.config.Settings;
+import dutramb.jsondiff.model.Diff;
+import dutramb.jsondiff.model.DiffRuns;
+import dutramb.jsondiff.model.Output;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the latest comparison results, so repeated requests for the same id
+ * don't compute the diff again.
+ * <p>
+ * Each result is tagged with the version of the {@code InputPair} it was
+ * computed from. Once a side is replaced the version changes and the cached
+ * result is not returned anymore. The cache is bounded by an estimate of the
+ * memory held by the results and evicts the least recently used ones first.
+ * Its budget is set by {@code JSONDIFF_RESULT_CACHE_BYTES} (0 disables it).
+ * Results of the decoded bytes of an id are kept apart from the results of
+ * its base64 characters, under the same budget.
+ * <p>
+ * Reads don't lock: the results are kept in a {@code ConcurrentHashMap} and
+ * a hit only stamps its entry with the current tick of a clock that moves
+ * on each store, so the order is approximate among results read between 
+ * the same two stores. The store that goes over the budget sorts the 
+ * entries by their stamp and evicts down to 90% of it.
+ *
+ * @author Marcio Branquinho Dutra
+ */
+public class ResultCache {
+
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * Estimated bytes of a cache entry and its {@code Output}.
+     */
+    private static final long ENTRY_BYTES = 128;
+    /**
+     * Estimated bytes of each {@code Diff} of the list, with its boxed values.
+     */
+    private static final long DIFF_BYTES = 56;
+    /**
+     * Bytes of each run of a {@code DiffRuns}.
+     */
+    private static final long RUN_BYTES = 8;
+
+    private final long maxBytes;
+    private final long lowWater;
+    private final ConcurrentHashMap<Long, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ResultCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.lowWater = maxBytes - maxBytes / 10;
+    }
+
+    private static class Holder {
+        private static final ResultCache INSTANCE = new ResultCache(
+                Settings.getLong("JSONDIFF_RESULT_CACHE_BYTES", DEFAULT_MAX_BYTES));
+    }
+
+    public static ResultCache getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Returns the cached result of the id, if it was computed from the 
+     * informed version.
+     *
+     * @param id
+     * @param version Version of the {@code InputPair} of the id.
+     * @return Null if there is no result for this version.
+     */
+    public Output get(Integer id, long version) {
+        return get(id, version, false);
+    }
+
+    /**
+     * Returns the cached result of the id, if it was computed from the 
+     * informed version.
+     *
+     * @param id
+     * @param version Version of the {@code InputPair} of the id.
+     * @param decoded Whether it is the result of the decoded bytes.
+     * @return Null if there is no result for this version.
+     */
+    public Output get(Integer id, long version, boolean decoded) {
+        Long key = key(id, decoded);
+        Entry entry = entries.get(key);
+        if (entry != null && entry.version == version) {
+            long now = clock.get();
+            if (entry.accessed != now) {
+                entry.accessed = now;
+            }
+            hits.increment();
+            return entry.output;
+        }
+        if (entry != null && entry.version < version && entries.remove(key, entry)) {
+            bytes.add(-entry.weight);
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Stores a result, evicting the least recently used ones if the memory
+     * budget is exceeded. Results older than the cached one are ignored.
+     *
+     * @param id
+     * @param version Version of the {@code InputPair} used to compute the result.
+     * @param output
+     */
+    public void put(Integer id, long version, Output output) {
+        put(id, version, false, output);
+    }
+
+    /**
+     * Stores a result, evicting the least recently used ones if the memory
+     * budget is exceeded. Results older than the cached one are ignored.
+     *
+     * @param id
+     * @param version Version of the {@code InputPair} used to compute the result.
+     * @param decoded Whether it is the result of the decoded bytes.
+     * @param output
+     */
+    public void put(Integer id, long version, boolean decoded, Output output) {
+        long weight = weigh(output);
+        Entry added = new Entry(version, output, weight, clock.getAndIncrement());
+        entries.compute(key(id, decoded), (key, current) -> {
+            if (current != null && current.version > version) {
+                return current;
+            }
+            if (current != null) {
+                bytes.add(-current.weight);
+            }
+            if (weight > maxBytes) {
+                return null;
+            }
+            bytes.add(weight);
+            return added;
+        });
+        if (bytes.sum() > maxBytes) {
+            evict();
+        }
+    }
+
+    /**
+     * Drops the results of the id. Called when one of its sides is replaced.
+     *
+     * @param id
+     */
+    public void invalidate(Integer id) {
+        remove(key(id, false));
+        remove(key(id, true));
+    }
+
+    private void remove(Long key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            bytes.add(-entry.weight);
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * @return Estimated memory held by the cached results.
+     */
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    /**
+     * Evicts the least recently read results down to the low-water mark. 
+     * Stores that go over the budget while another one evicts leave it to 
+     * that one.
+     */
+    private void evict() {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            List<Candidate> candidates = new ArrayList<>(entries.size());
+            entries.forEach((id, entry) -> candidates.add(new Candidate(id, entry)));
+            candidates.sort((a, b) -> Long.compare(a.accessed, b.accessed));
+            for (int i = 0; i < candidates.size() && bytes.sum() > lowWater; i++) {
+                Candidate candidate = candidates.get(i);
+                if (entries.remove(candidate.id, candidate.entry)) {
+                    bytes.add(-candidate.entry.weight);
+                    evictions.increment();
+                }
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private static Long key(Integer id, boolean decoded) {
+        return ((long) id << 1) | (decoded ? 1 : 0);
+    }
+
+    private static long weigh(Output output) {
+        List<Diff> diffList = output.getDiffList();
+        if (diffList == null) {
+            return ENTRY_BYTES;
+        }
+        return ENTRY_BYTES + diffList.size() * (diffList instanceof DiffRuns ? RUN_BYTES : DIFF_BYTES);
+    }
+
+    private static class Entry {
+
+        private final long version;
+        private final Output output;
+        private final long weight;
+        private volatile long accessed;
+
+        private Entry(long version, Output output, long weight, long accessed) {
+            this.version = version;
+            this.output = output;
+            this.weight = weight;
+            this.accessed = accessed;
+        }
+    }
+
+    /**
+     * An entry with the stamp it had when the eviction started, so the sort
+     * doesn't see it change.
+     */
+    private static class Candidate {
+
+        private final Long id;
+        private final Entry entry;
+        private final long accessed;
+
+        private Candidate(Long id, Entry entry) {
+            this.id = id;
+            this.entry = entry;
+            this.accessed = entry.accessed;
+        }
+    }
+}
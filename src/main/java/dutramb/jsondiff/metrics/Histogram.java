@@ -0,0 +1,156 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the distribution of non-negative values, e.g. latencies in 
+ * nanoseconds or sizes in bytes, in log-linear buckets as HdrHistogram 
+ * does: each power of two is split in 32 buckets, so quantiles are within
+ * about 3% of the recorded values, from 0 up to {@code Long.MAX_VALUE}.
+ * <p>
+ * Recording is lock-free: one atomic increment of a bucket plus striped 
+ * counters for the count and the sum. The buckets are striped too, each 
+ * thread records in the stripe of its id, so threads don't contend on the
+ * same array; a stripe is allocated the first time a thread uses it.
+ *
+ * @author Marcio Branquinho Dutra
+ */
+public class Histogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+    private static final int STRIPES = Math.min(16, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+
+    private final double scale;
+    private final AtomicReferenceArray<AtomicLongArray> stripes = new AtomicReferenceArray<>(STRIPES);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * @param scale Factor applied to the values when they are reported, e.g.
+     * 1e-9 to report nanoseconds as seconds.
+     */
+    public Histogram(double scale) {
+        this.scale = scale;
+    }
+
+    /**
+     * @param value Negative values are recorded as 0.
+     */
+    public void record(long value) {
+        long v = Math.max(0, value);
+        stripe().incrementAndGet(index(v));
+        count.increment();
+        sum.add(v);
+    }
+
+    /**
+     * Records the time elapsed since a {@code System.nanoTime()} reading.
+     *
+     * @param start
+     */
+    public void recordSince(long start) {
+        record(System.nanoTime() - start);
+    }
+
+    private AtomicLongArray stripe() {
+        long id = Thread.currentThread().threadId();
+        int i = (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & (STRIPES - 1);
+        AtomicLongArray stripe = stripes.get(i);
+        if (stripe == null) {
+            stripes.compareAndSet(i, null, new AtomicLongArray(BUCKETS));
+            stripe = stripes.get(i);
+        }
+        return stripe;
+    }
+
+    static int index(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * @return The highest value of a bucket.
+     */
+    static long highestValue(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return The sum of the values, scaled.
+     */
+    public double getSum() {
+        return sum.sum() * scale;
+    }
+
+    /**
+     * Computes a quantile from the buckets. Values are recorded while it is
+     * computed, so it is an estimate of a moving distribution.
+     *
+     * @param quantile From 0 to 1.
+     * @return The highest value of the bucket holding the quantile, scaled,
+     * or 0 if nothing was recorded.
+     */
+    public double getQuantile(double quantile) {
+        long[] buckets = new long[BUCKETS];
+        long total = 0;
+        for (int s = 0; s < STRIPES; s++) {
+            AtomicLongArray stripe = stripes.get(s);
+            for (int i = 0; stripe != null && i < BUCKETS; i++) {
+                long n = stripe.get(i);
+                buckets[i] += n;
+                total += n;
+            }
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return highestValue(i) * scale;
+            }
+        }
+        return highestValue(BUCKETS - 1) * scale;
+    }
+}
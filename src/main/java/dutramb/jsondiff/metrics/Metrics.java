@@ -0,0 +1,179 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps the json-diff metrics and writes them in the Prometheus text 
+ * format.
+ * <p>
+ * Metrics are registered once, usually in static fields, and recorded 
+ * without going through the registry. Histograms are written as summaries
+ * with their 0.5, 0.9, 0.99 and 0.999 quantiles. Registering a metric that
+ * already exists returns it (gauges and counters read from a supplier
+ * are replaced).
+ *
+ * @author Marcio Branquinho Dutra
+ */
+public class Metrics {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    private static class Holder {
+        private static final Metrics INSTANCE = new Metrics();
+    }
+
+    public static Metrics getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * @param name Metric name, e.g. jsondiff_compare_seconds.
+     * @param help
+     * @param scale Factor applied to the recorded values when they are 
+     * written, e.g. 1e-9 for nanoseconds written as seconds.
+     * @param labels Label names and values, alternated.
+     * @return
+     */
+    public Histogram histogram(String name, String help, double scale, String... labels) {
+        return (Histogram) register(name, help, "summary", labels, new Histogram(scale), false);
+    }
+
+    /**
+     * @param name Metric name, e.g. jsondiff_comparisons_total.
+     * @param help
+     * @param labels Label names and values, alternated.
+     * @return
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) register(name, help, "counter", labels, new Counter(), false);
+    }
+
+    /**
+     * Registers a counter kept by another component, e.g. the hits of a 
+     * cache. The value must only go up.
+     *
+     * @param name Metric name, e.g. jsondiff_result_cache_hits_total.
+     * @param help
+     * @param value Read each time the metrics are written.
+     * @param labels Label names and values, alternated.
+     */
+    public void counter(String name, String help, LongSupplier value, String... labels) {
+        register(name, help, "counter", labels, value, true);
+    }
+
+    /**
+     * @param name Metric name, e.g. jsondiff_repository_bytes.
+     * @param help
+     * @param value Read each time the metrics are written.
+     * @param labels Label names and values, alternated.
+     */
+    public void gauge(String name, String help, LongSupplier value, String... labels) {
+        register(name, help, "gauge", labels, value, true);
+    }
+
+    private synchronized Object register(String name, String help, String type, String[] labels, Object metric, boolean replace) {
+        Family family = families.computeIfAbsent(name, key -> new Family(help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is already a " + family.type);
+        }
+        String key = labels(labels);
+        if (replace) {
+            family.metrics.put(key, metric);
+            return metric;
+        }
+        return family.metrics.computeIfAbsent(key, k -> metric);
+    }
+
+    private static String labels(String[] labels) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            text.append(text.length() == 0 ? "" : ",").append(labels[i]).append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Writes all metrics in the Prometheus text format, version 0.0.4.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public synchronized void write(Writer out) throws IOException {
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.write("# HELP " + name + " " + family.help + "\n");
+            out.write("# TYPE " + name + " " + family.type + "\n");
+            for (Map.Entry<String, Object> metric : family.metrics.entrySet()) {
+                String labels = metric.getKey();
+                Object value = metric.getValue();
+                if (value instanceof Histogram) {
+                    Histogram histogram = (Histogram) value;
+                    for (double quantile : QUANTILES) {
+                        String quantileLabel = "quantile=\"" + quantile + "\"";
+                        sample(out, name, labels.isEmpty() ? quantileLabel : labels + "," + quantileLabel, histogram.getQuantile(quantile));
+                    }
+                    sample(out, name + "_sum", labels, histogram.getSum());
+                    sample(out, name + "_count", labels, histogram.getCount());
+                } else if (value instanceof Counter) {
+                    sample(out, name, labels, ((Counter) value).get());
+                } else {
+                    sample(out, name, labels, ((LongSupplier) value).getAsLong());
+                }
+            }
+        }
+        out.flush();
+    }
+
+    private static void sample(Writer out, String name, String labels, double value) throws IOException {
+        out.write(name);
+        if (!labels.isEmpty()) {
+            out.write("{" + labels + "}");
+        }
+        out.write(" ");
+        out.write(value == Math.rint(value) && Math.abs(value) < 1e15 ? Long.toString((long) value) : Double.toString(value));
+        out.write("\n");
+    }
+
+    private static class Family {
+
+        private final String help;
+        private final String type;
+        private final Map<String, Object> metrics = new LinkedHashMap<>();
+
+        private Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.model;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Holds differences as {@code offset, length} pairs in a growable 
+ * {@code int} array, 8 bytes per run, instead of a {@code Diff} object with
+ * two boxed values each.
+ * <p>
+ * It is a {@code List<Diff>} view for compatibility: {@code get} creates the
+ * {@code Diff} on demand. Code on the hot path reads the pairs through 
+ * {@code getOffset} and {@code getLength}, and JSON is written straight from
+ * them.
+ *
+ * @author Marcio Branquinho Dutra
+ */
+@JsonSerialize(using = DiffRuns.JsonSerializer.class)
+public class DiffRuns extends AbstractList<Diff> implements RandomAccess, Serializable {
+
+    private int[] runs;
+    private int size;
+
+    public DiffRuns() {
+        this(16);
+    }
+
+    /**
+     * @param capacity The number of runs it holds before growing.
+     */
+    public DiffRuns(int capacity) {
+        runs = new int[Math.max(capacity, 1) * 2];
+    }
+
+    /**
+     * Appends a run.
+     *
+     * @param offset
+     * @param length
+     */
+    public void add(int offset, int length) {
+        if (size * 2 == runs.length) {
+            runs = Arrays.copyOf(runs, runs.length * 2);
+        }
+        runs[size * 2] = offset;
+        runs[size * 2 + 1] = length;
+        size++;
+        modCount++;
+    }
+
+    /**
+     * Appends the runs of another container. Its first run is joined to the
+     * last run here when they touch, e.g. for runs found on both sides of a
+     * chunk boundary.
+     *
+     * @param other
+     */
+    public void join(DiffRuns other) {
+        int first = 0;
+        if (size > 0 && other.size > 0 && getOffset(size - 1) + getLength(size - 1) == other.getOffset(0)) {
+            runs[size * 2 - 1] += other.getLength(0);
+            first = 1;
+        }
+        for (int i = first; i < other.size; i++) {
+            add(other.getOffset(i), other.getLength(i));
+        }
+    }
+
+    public int getOffset(int index) {
+        checkIndex(index);
+        return runs[index * 2];
+    }
+
+    public int getLength(int index) {
+        checkIndex(index);
+        return runs[index * 2 + 1];
+    }
+
+    @Override
+    public boolean add(Diff diff) {
+        add(diff.getOffset(), diff.getLength());
+        return true;
+    }
+
+    @Override
+    public Diff get(int index) {
+        return new Diff(getOffset(index), getLength(index));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    /**
+     * Writes the runs as the JSON of a {@code List<Diff>} without creating 
+     * the {@code Diff} objects.
+     */
+    public static class JsonSerializer extends StdSerializer<DiffRuns> {
+
+        public JsonSerializer() {
+            super(DiffRuns.class);
+        }
+
+        @Override
+        public void serialize(DiffRuns value, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeStartArray();
+            for (int i = 0; i < value.size; i++) {
+                generator.writeStartObject();
+                generator.writeNumberField("offset", value.runs[i * 2]);
+                generator.writeNumberField("length", value.runs[i * 2 + 1]);
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+    }
+}
@@ -34,6 +34,8 @@ import javax.xml.bind.annotation.XmlRootElement;
 @XmlRootElement
 public class Input implements Serializable {
 
+    static final int SUMMARY_LENGTH = 64;
+
     /**
      * Number used to identify pairs of data to compare.
      */
@@ -67,10 +69,17 @@ public class Input implements Serializable {
         this.value = value;
     }
 
+    /**
+     * Values longer than {@code SUMMARY_LENGTH} show only their beginning 
+     * and length, since they may have megabytes.
+     */
     @Override
     public String toString() {
-        return new StringBuilder().append("id=").append(id) 
-                .append(" value=").append(value).toString();
+        StringBuilder strb = new StringBuilder().append("id=").append(id).append(" value=");
+        if (value != null && value.length() > SUMMARY_LENGTH) {
+            return strb.append(value, 0, SUMMARY_LENGTH).append("...(").append(value.length()).append(" chars)").toString();
+        }
+        return strb.append(value).toString();
     }
 
 }
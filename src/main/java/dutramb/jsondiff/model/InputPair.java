@@ -0,0 +1,140 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.model;
+
+/**
+ * Holds the left and right inputs stored for the same id, as payloads.
+ * <p>
+ * It is immutable: storing a side creates a new pair with a new version,
+ * so readers always see both sides as they were at the same moment.
+ *
+ * @author Marcio Branquinho Dutra
+ */
+public final class InputPair {
+
+    private final Payload left;
+    private final Payload right;
+    /**
+     * Changes every time one of the sides is replaced. Versions are never
+     * reused by the repository, so they identify the content of both sides.
+     */
+    private final long version;
+    /**
+     * When the pair was stored, in milliseconds.
+     */
+    private final long written;
+    /**
+     * When the pair was last read, in milliseconds, with one second of 
+     * precision. It is only bookkeeping for eviction, not part of the content.
+     */
+    private volatile long accessed;
+
+    public InputPair(Payload left, Payload right, long version) {
+        this.left = left;
+        this.right = right;
+        this.version = version;
+        this.written = System.currentTimeMillis();
+        this.accessed = written;
+    }
+
+    public Payload getLeft() {
+        return left;
+    }
+
+    public Payload getRight() {
+        return right;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getWritten() {
+        return written;
+    }
+
+    public long getAccessed() {
+        return accessed;
+    }
+
+    /**
+     * Records a read. The time is only written when it moved by a second, so
+     * pairs read by many threads don't bounce between caches.
+     *
+     * @param now Current time in milliseconds.
+     */
+    public void touch(long now) {
+        if (now - accessed >= 1000) {
+            accessed = now;
+        }
+    }
+
+    /**
+     * @return Bytes of both payloads.
+     */
+    public long length() {
+        return (left == null ? 0 : left.length()) + (right == null ? 0 : right.length());
+    }
+
+    /**
+     * @param input The new left payload.
+     * @param version The new version.
+     * @return A copy of this pair holding the new left input.
+     */
+    public InputPair withLeft(Payload input, long version) {
+        return new InputPair(input, right, version);
+    }
+
+    /**
+     * @param input The new right payload.
+     * @param version The new version.
+     * @return A copy of this pair holding the new right input.
+     */
+    public InputPair withRight(Payload input, long version) {
+        return new InputPair(left, input, version);
+    }
+
+    /**
+     * @return A pair with the same version and both sides decoded from 
+     * base64, decoded for this call only.
+     * @throws IllegalArgumentException if a side is not valid base64.
+     */
+    public InputPair decoded() {
+        return new InputPair(left == null ? null : left.decode(), right == null ? null : right.decode(), version);
+    }
+
+    /**
+     * @return true if both left and right inputs are present.
+     */
+    public boolean isComplete() {
+        return left != null && right != null;
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder().append("left=[").append(left)
+                .append("] right=[").append(right)
+                .append("] version=").append(version).toString();
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.model;
+
+import dutramb.jsondiff.config.Settings;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds the hashes of the fixed-size blocks of a payload, arranged as a
+ * binary hash tree: each node hashes its two children.
+ * <p>
+ * Comparing the trees of two payloads of the same size descends only into 
+ * the subtrees whose hashes differ, so finding the changed blocks costs in
+ * proportion to the changed region instead of the payload size. The block
+ * size is set by {@code JSONDIFF_MERKLE_BLOCK_SIZE} (0 disables the trees).
+ *
+ * @author Marcio Branquinho Dutra
+ */
+public final class MerkleTree {
+
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+    public static final int BLOCK_SIZE = Settings.getInt("JSONDIFF_MERKLE_BLOCK_SIZE", DEFAULT_BLOCK_SIZE);
+
+    private final int blockSize;
+    private final int length;
+    /**
+     * Hashes of each level. The first level holds the block hashes and the 
+     * last one holds the root.
+     */
+    private final long[][] levels;
+
+    private MerkleTree(int blockSize, int length, long[][] levels) {
+        this.blockSize = blockSize;
+        this.length = length;
+        this.levels = levels;
+    }
+
+    /**
+     * Builds the tree of the bytes from the position to the limit of a buffer.
+     *
+     * @param data It is not changed.
+     * @param blockSize
+     * @return
+     */
+    public static MerkleTree build(ByteBuffer data, int blockSize) {
+        ByteBuffer buffer = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+        int length = buffer.limit();
+        int blocks = Math.max(1, (int) ((length + (long) blockSize - 1) / blockSize));
+
+        List<long[]> levels = new ArrayList<>();
+        long[] level = new long[blocks];
+        for (int i = 0; i < blocks; i++) {
+            int from = i * blockSize;
+            level[i] = XXHash64.hash(buffer, from, (int) Math.min((long) from + blockSize, length), 0);
+        }
+        levels.add(level);
+        while (level.length > 1) {
+            long[] parents = new long[(level.length + 1) / 2];
+            for (int i = 0; i < parents.length; i++) {
+                parents[i] = 2 * i + 1 < level.length ? XXHash64.combine(level[2 * i], level[2 * i + 1]) : level[2 * i];
+            }
+            levels.add(parents);
+            level = parents;
+        }
+        return new MerkleTree(blockSize, length, levels.toArray(new long[levels.size()][]));
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * @param other
+     * @return true if both trees have the same shape and can be compared.
+     */
+    public boolean isComparable(MerkleTree other) {
+        return other != null && blockSize == other.blockSize && length == other.length;
+    }
+
+    /**
+     * Finds the byte ranges whose blocks have different hashes. Adjacent 
+     * blocks are joined in one range.
+     *
+     * @param other A comparable tree.
+     * @return The ranges, as {@code {from, to}} pairs, in ascending order.
+     */
+    public List<int[]> mismatches(MerkleTree other) {
+        List<int[]> ranges = new ArrayList<>();
+        descend(other, levels.length - 1, 0, ranges);
+        return ranges;
+    }
+
+    private void descend(MerkleTree other, int level, int index, List<int[]> ranges) {
+        if (index >= levels[level].length || levels[level][index] == other.levels[level][index]) {
+            return;
+        }
+        if (level > 0) {
+            descend(other, level - 1, 2 * index, ranges);
+            descend(other, level - 1, 2 * index + 1, ranges);
+            return;
+        }
+        int from = index * blockSize;
+        int to = (int) Math.min((long) from + blockSize, length);
+        int[] last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+        if (last != null && last[1] == from) {
+            last[1] = to;
+        } else {
+            ranges.add(new int[]{from, to});
+        }
+    }
+}
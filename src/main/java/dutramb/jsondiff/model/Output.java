@@ -53,6 +53,13 @@ public class Output implements Serializable {
      */
     @JsonInclude(JsonInclude.Include.NON_NULL)
     private List<Diff> diffList;
+    /**
+     * Cursor of the next page of differences: the offset to ask for next.
+     * It is provided only when a page was requested and more differences
+     * are left.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Integer next;
 
     public Output() {
     }
@@ -88,10 +95,21 @@ public class Output implements Serializable {
         this.diffList = diffList;
     }
 
+    public Integer getNext() {
+        return next;
+    }
+
+    @XmlElement
+    public void setNext(Integer next) {
+        this.next = next;
+    }
+
     @Override
     public String toString() {
         return new StringBuilder().append("id=").append(id) 
                 .append(" result=").append(result) 
-                .append(" diffList=[").append(diffList).append("]").toString();
+                .append(" diffList=[").append(diffList == null || diffList.size() <= Input.SUMMARY_LENGTH 
+                        ? diffList : diffList.size() + " runs").append("]")
+                .append(" next=").append(next).toString();
     }
 }
@@ -0,0 +1,220 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.model;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Holds a stored base64 value in a compact form: one byte per character
+ * instead of the two bytes a {@code String} char takes, with its length and
+ * a content hash computed once, when it is created.
+ * <p>
+ * The bytes may live in the Java heap or in a direct (off-heap) buffer.
+ *
+ * @author Marcio Branquinho Dutra
+ */
+public final class Payload {
+
+    private final ByteBuffer data;
+    private final int length;
+    /**
+     * xxHash64 of the bytes. Payloads with the same length and hash are taken
+     * as equal by the comparison; the chance of two different payloads 
+     * colliding is about 1 in 2^64.
+     */
+    private final long hash;
+    /**
+     * Block hashes, built on the first call to {@code getTree}.
+     */
+    private volatile MerkleTree tree;
+    /**
+     * False for copies that only live for one comparison, e.g. decoded 
+     * ones: their tree would be read once, so it is never built.
+     */
+    private final boolean indexed;
+
+    /**
+     * @param data The characters of the value, one byte each, from its 
+     * position to its limit. The buffer is not copied and its content must 
+     * not be changed afterwards.
+     */
+    public Payload(ByteBuffer data) {
+        this(data, hash(data));
+    }
+
+    /**
+     * Creates a payload whose hash was computed before, e.g. when it was 
+     * first stored.
+     *
+     * @param data The characters of the value, one byte each, from its 
+     * position to its limit. The buffer is not copied.
+     * @param hash xxHash64 of the characters.
+     */
+    public Payload(ByteBuffer data, long hash) {
+        this(data, hash, null);
+    }
+
+    /**
+     * Creates a payload whose hash and block hashes were computed before, 
+     * e.g. for a copy of a payload.
+     *
+     * @param data The characters of the value, one byte each, from its 
+     * position to its limit. The buffer is not copied.
+     * @param hash xxHash64 of the characters.
+     * @param tree Block hashes of the characters. It may be null.
+     */
+    public Payload(ByteBuffer data, long hash, MerkleTree tree) {
+        this(data, hash, tree, true);
+    }
+
+    private Payload(ByteBuffer data, long hash, MerkleTree tree, boolean indexed) {
+        this.data = data.slice().asReadOnlyBuffer();
+        this.length = this.data.limit();
+        this.hash = hash;
+        this.tree = tree;
+        this.indexed = indexed;
+    }
+
+    /**
+     * @param data The characters of the value, one byte each. The array is
+     * not copied and must not be changed afterwards.
+     */
+    public Payload(byte[] data) {
+        this(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Creates a payload from a value.
+     *
+     * @param value
+     * @return
+     * @throws IllegalArgumentException if some character doesn't fit in one
+     * byte (it never happens for base64 data).
+     */
+    public static Payload of(String value) {
+        PayloadBuilder builder = new PayloadBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            builder.append(value.charAt(i));
+        }
+        return builder.toPayload();
+    }
+
+    private static long hash(ByteBuffer data) {
+        return XXHash64.hash(data, 0);
+    }
+
+    /**
+     * @return The number of characters.
+     */
+    public int length() {
+        return length;
+    }
+
+    public long getHash() {
+        return hash;
+    }
+
+    /**
+     * Returns the block hashes of the payload, building them on the first 
+     * call. Repositories call it when a payload is stored, so the comparison
+     * finds them ready.
+     *
+     * @return The tree, or null if {@code JSONDIFF_MERKLE_BLOCK_SIZE} is 0
+     * or the payload is a decoded copy.
+     */
+    public MerkleTree getTree() {
+        MerkleTree result = tree;
+        if (result == null && indexed && MerkleTree.BLOCK_SIZE > 0) {
+            result = MerkleTree.build(data, MerkleTree.BLOCK_SIZE);
+            tree = result;
+        }
+        return result;
+    }
+
+    /**
+     * Decodes the bytes the base64 characters encode, with the table-driven 
+     * {@code java.util.Base64} decoder (an intrinsic of the JVM on most 
+     * platforms). The result is not kept: it would take Java heap the 
+     * repository budget doesn't count, even for payloads kept off the heap.
+     * It is compared once, so it never builds block hashes.
+     *
+     * @return A new payload with the decoded bytes, in the Java heap.
+     * @throws IllegalArgumentException if the characters are not valid 
+     * base64.
+     */
+    public Payload decode() {
+        ByteBuffer decoded = Base64.getDecoder().decode(data.duplicate());
+        return new Payload(decoded, hash(decoded), null, false);
+    }
+
+    /**
+     * @return true if the bytes are kept out of the Java heap.
+     */
+    public boolean isDirect() {
+        return data.isDirect();
+    }
+
+    /**
+     * @return A read-only view of the characters, one byte each.
+     */
+    public ByteBuffer asBuffer() {
+        return data.duplicate();
+    }
+
+    /**
+     * @return The value as a {@code String}. It allocates a copy of the whole
+     * value, so it should not be used on the comparison path.
+     */
+    public String asString() {
+        byte[] bytes = new byte[length];
+        data.duplicate().get(bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Compares the length and the hash first, so the bytes are only read 
+     * when both are the same.
+     */
+    @Override
+    public boolean equals(Object object) {
+        if (!(object instanceof Payload)) {
+            return false;
+        }
+        Payload other = (Payload) object;
+        return length == other.length && hash == other.hash && data.equals(other.data);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) hash;
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder().append("length=").append(length)
+                .append(" hash=").append(Long.toHexString(hash)).toString();
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.model;
+
+import dutramb.jsondiff.config.Settings;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Collects the characters of a value while it is read, one byte each, and
+ * builds the {@code Payload}.
+ * <p>
+ * It is an {@code OutputStream}, so encoders can write to it directly. When
+ * the final size is informed up front, as the capacity or as the expected 
+ * size, no copy is made to build the payload.
+ * <p>
+ * With {@code JSONDIFF_PAYLOAD_OFF_HEAP=true}, the payloads are copied to
+ * direct buffers, so the stored values don't take Java heap space.
+ *
+ * @author Marcio Branquinho Dutra
+ */
+public class PayloadBuilder extends OutputStream {
+
+    private static final int MAX_SIZE = Integer.MAX_VALUE - 8;
+    private static final boolean OFF_HEAP = Settings.getBoolean("JSONDIFF_PAYLOAD_OFF_HEAP", false);
+
+    private byte[] data;
+    private int size;
+    private final int expected;
+
+    /**
+     * @param capacity Expected number of characters.
+     */
+    public PayloadBuilder(int capacity) {
+        this(capacity, capacity);
+    }
+
+    /**
+     * Creates a builder that starts small and grows up to the expected size
+     * first, e.g. when the size comes from a client and can't be trusted.
+     *
+     * @param capacity Initial number of characters.
+     * @param expected Expected number of characters.
+     */
+    public PayloadBuilder(int capacity, int expected) {
+        data = new byte[Math.max(0, capacity)];
+        this.expected = expected;
+    }
+
+    /**
+     * Appends a character of the value.
+     *
+     * @param c
+     * @throws IllegalArgumentException if the character doesn't fit in one 
+     * byte (it never happens for base64 data).
+     */
+    public void append(char c) {
+        if (c > 0xFF) {
+            throw new IllegalArgumentException("Value is not base64 data, invalid character at " + size);
+        }
+        write(c);
+    }
+
+    /**
+     * Appends characters of the value.
+     *
+     * @param chars
+     * @param offset
+     * @param length
+     * @throws IllegalArgumentException if some character doesn't fit in one 
+     * byte (it never happens for base64 data).
+     */
+    public void append(char[] chars, int offset, int length) {
+        ensureCapacity(size + length);
+        for (int i = 0; i < length; i++) {
+            char c = chars[offset + i];
+            if (c > 0xFF) {
+                throw new IllegalArgumentException("Value is not base64 data, invalid character at " + (size + i));
+            }
+            data[size + i] = (byte) c;
+        }
+        size += length;
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(size + 1);
+        data[size++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(size + len);
+        System.arraycopy(b, off, data, size, len);
+        size += len;
+    }
+
+    /**
+     * @return A payload with the characters appended so far.
+     */
+    public Payload toPayload() {
+        if (OFF_HEAP) {
+            ByteBuffer direct = ByteBuffer.allocateDirect(size);
+            direct.put(data, 0, size).flip();
+            return new Payload(direct);
+        }
+        return new Payload(size == data.length ? data : Arrays.copyOf(data, size));
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity < 0 || capacity > MAX_SIZE) {
+            throw new IllegalArgumentException("Value is too large");
+        }
+        if (capacity > data.length) {
+            long grown = Math.max(capacity, Math.max(16, data.length + (data.length >> 1)));
+            if (capacity <= expected) {
+                grown = Math.min(grown, expected);
+            }
+            data = Arrays.copyOf(data, (int) Math.min(grown, MAX_SIZE));
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.model;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Computes the 64-bit xxHash (XXH64) of a sequence of bytes. It reads 8 bytes
+ * at a time and it is much faster than a cryptographic hash, while keeping
+ * collisions between different contents unlikely (about 1 in 2^64).
+ *
+ * @author Marcio Branquinho Dutra
+ */
+public final class XXHash64 {
+
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+    private XXHash64() {
+    }
+
+    /**
+     * Hashes the bytes from the position to the limit of a buffer. The buffer
+     * is not changed.
+     *
+     * @param data
+     * @param seed
+     * @return
+     */
+    public static long hash(ByteBuffer data, long seed) {
+        return hash(data.duplicate().order(ByteOrder.LITTLE_ENDIAN), data.position(), data.limit(), seed);
+    }
+
+    /**
+     * Hashes the bytes of the range {@code [from, to)} of a buffer.
+     *
+     * @param buffer A buffer in little endian order. It is not changed.
+     * @param from
+     * @param to
+     * @param seed
+     * @return
+     */
+    static long hash(ByteBuffer buffer, int from, int to, long seed) {
+        int p = from;
+        int end = to;
+        long h;
+
+        if (end - p >= 32) {
+            int limit = end - 32;
+            long v1 = seed + PRIME1 + PRIME2;
+            long v2 = seed + PRIME2;
+            long v3 = seed;
+            long v4 = seed - PRIME1;
+            do {
+                v1 = round(v1, buffer.getLong(p));
+                v2 = round(v2, buffer.getLong(p + 8));
+                v3 = round(v3, buffer.getLong(p + 16));
+                v4 = round(v4, buffer.getLong(p + 24));
+                p += 32;
+            } while (p <= limit);
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = mergeRound(h, v1);
+            h = mergeRound(h, v2);
+            h = mergeRound(h, v3);
+            h = mergeRound(h, v4);
+        } else {
+            h = seed + PRIME5;
+        }
+
+        h += end - from;
+
+        for (; p + 8 <= end; p += 8) {
+            h ^= round(0, buffer.getLong(p));
+            h = Long.rotateLeft(h, 27) * PRIME1 + PRIME4;
+        }
+        if (p + 4 <= end) {
+            h ^= (buffer.getInt(p) & 0xFFFFFFFFL) * PRIME1;
+            h = Long.rotateLeft(h, 23) * PRIME2 + PRIME3;
+            p += 4;
+        }
+        for (; p < end; p++) {
+            h ^= (buffer.get(p) & 0xFF) * PRIME5;
+            h = Long.rotateLeft(h, 11) * PRIME1;
+        }
+
+        return avalanche(h);
+    }
+
+    /**
+     * Combines two hashes into one. It gives the hash of the 16 bytes of 
+     * both values in little endian order.
+     *
+     * @param first
+     * @param second
+     * @return
+     */
+    public static long combine(long first, long second) {
+        long h = PRIME5 + 16;
+        h ^= round(0, first);
+        h = Long.rotateLeft(h, 27) * PRIME1 + PRIME4;
+        h ^= round(0, second);
+        h = Long.rotateLeft(h, 27) * PRIME1 + PRIME4;
+        return avalanche(h);
+    }
+
+    private static long avalanche(long h) {
+        h ^= h >>> 33;
+        h *= PRIME2;
+        h ^= h >>> 29;
+        h *= PRIME3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * PRIME2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * PRIME1;
+    }
+
+    private static long mergeRound(long acc, long value) {
+        acc ^= round(0, value);
+        return acc * PRIME1 + PRIME4;
+    }
+}
@@ -0,0 +1,293 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.repository;
+
+import dutramb.jsondiff.config.Settings;
+import dutramb.jsondiff.log.Logger;
+import dutramb.jsondiff.metrics.Counter;
+import dutramb.jsondiff.metrics.Metrics;
+import dutramb.jsondiff.model.Input;
+import dutramb.jsondiff.model.InputPair;
+import dutramb.jsondiff.model.Payload;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the index of stored pairs in RAM, shared by the repositories.
+ * <p>
+ * Both sides of an id are kept together in one {@code InputPair}, in a 
+ * {@code PairIndex} keyed by the {@code int} id. Reads are lock-free and 
+ * writes replace the pair atomically, locking only the segment of that id, 
+ * so concurrent requests never lose updates. Subclasses decide
+ * where the payload bytes live.
+ * <p>
+ * Pairs not written for {@code JSONDIFF_TTL_SECONDS} expire, and when the 
+ * payloads stored go over {@code JSONDIFF_REPOSITORY_MAX_BYTES} the least 
+ * recently used pairs are evicted, down to 
+ * {@code JSONDIFF_REPOSITORY_LOW_WATER_PERCENT} of the budget, so a full 
+ * repository isn't sorted again on every write. Both are done by a 
+ * background thread every {@code JSONDIFF_CLEANUP_INTERVAL_MS}, or as soon as
+ * a write goes over the budget, without blocking requests. 0 disables each of
+ * them.
+ *
+ * @author Marcio Branquinho Dutra
+ */
+public abstract class AbstractRepository implements Repository {
+
+    public static final long TTL = TimeUnit.SECONDS.toMillis(Settings.getLong("JSONDIFF_TTL_SECONDS", 0));
+    public static final long MAX_BYTES = Settings.getLong("JSONDIFF_REPOSITORY_MAX_BYTES", 0);
+    public static final long CLEANUP_INTERVAL = Settings.getLong("JSONDIFF_CLEANUP_INTERVAL_MS", 1000);
+    public static final int LOW_WATER_PERCENT = Settings.getInt("JSONDIFF_REPOSITORY_LOW_WATER_PERCENT", 90);
+
+    private static final Counter EXPIRED = Metrics.getInstance().counter("jsondiff_repository_evictions_total",
+            "Ids removed from the repository.", "reason", "expired");
+    private static final Counter EVICTED = Metrics.getInstance().counter("jsondiff_repository_evictions_total",
+            "Ids removed from the repository.", "reason", "size");
+    private static final Counter DELETED = Metrics.getInstance().counter("jsondiff_repository_evictions_total",
+            "Ids removed from the repository.", "reason", "deleted");
+
+    private final PairIndex storage = new PairIndex();
+    private final AtomicLong versions = new AtomicLong();
+    private final LongAdder bytes = new LongAdder();
+    private final long ttl;
+    private final long maxBytes;
+    private final long lowWater;
+    private final ScheduledExecutorService cleaner;
+    private final AtomicBoolean cleanupRequested = new AtomicBoolean();
+
+    protected AbstractRepository() {
+        this(TTL, MAX_BYTES, CLEANUP_INTERVAL);
+    }
+
+    /**
+     * @param ttl Milliseconds a pair is kept after its last write, 0 for
+     * ever.
+     * @param maxBytes Bytes of payloads kept, 0 for no limit.
+     * @param cleanupInterval Milliseconds between cleanups, 0 to clean up
+     * only when {@link #cleanUp()} is called.
+     */
+    protected AbstractRepository(long ttl, long maxBytes, long cleanupInterval) {
+        this.ttl = ttl;
+        this.maxBytes = maxBytes;
+        this.lowWater = maxBytes * Math.max(0, Math.min(100, LOW_WATER_PERCENT)) / 100;
+        if ((ttl > 0 || maxBytes > 0) && cleanupInterval > 0) {
+            this.cleaner = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "jsondiff-repository-cleanup");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.cleaner.scheduleWithFixedDelay(this::cleanUp, cleanupInterval, cleanupInterval, TimeUnit.MILLISECONDS);
+        } else {
+            this.cleaner = null;
+        }
+    }
+
+    @Override
+    public Input getLeftInput(Integer id) {
+        InputPair pair = read(id);
+        Input left = pair == null || pair.getLeft() == null ? null : new Input(id, pair.getLeft().asString());
+        if (Logger.isDebugEnabled()) {
+            Logger.debug("return left input", this.getClass(), "id", id, "left", left);
+        }
+        return left;
+    }
+
+    @Override
+    public void insertLeftInput(Input input) {
+        insertLeftPayload(input.getId(), Payload.of(input.getValue()));
+    }
+
+    @Override
+    public Input getRightInput(Integer id) {
+        InputPair pair = read(id);
+        Input right = pair == null || pair.getRight() == null ? null : new Input(id, pair.getRight().asString());
+        if (Logger.isDebugEnabled()) {
+            Logger.debug("return right input", this.getClass(), "id", id, "right", right);
+        }
+        return right;
+    }
+
+    @Override
+    public void insertRightInput(Input input) {
+        insertRightPayload(input.getId(), Payload.of(input.getValue()));
+    }
+
+    @Override
+    public InputPair getInputPair(Integer id) {
+        InputPair pair = read(id);
+        if (Logger.isDebugEnabled()) {
+            Logger.debug("return input pair", this.getClass(), "id", id, "pair", pair);
+        }
+        return pair;
+    }
+
+    @Override
+    public boolean delete(Integer id) {
+        InputPair pair = storage.get(id);
+        if (pair != null && remove(id, pair)) {
+            DELETED.increment();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int getSize() {
+        return storage.size();
+    }
+
+    @Override
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    /**
+     * Returns the pair of an id, if it is not expired, and records the read
+     * for the eviction order.
+     */
+    private InputPair read(Integer id) {
+        InputPair pair = storage.get(id);
+        if (pair == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (isExpired(pair, now)) {
+            return null;
+        }
+        pair.touch(now);
+        return pair;
+    }
+
+    private boolean isExpired(InputPair pair, long now) {
+        return ttl > 0 && now - pair.getWritten() > ttl;
+    }
+
+    /**
+     * Replaces one side of the pair of an id, creating the pair if needed.
+     *
+     * @param id
+     * @param payload
+     * @param left true for the left side, false for the right one.
+     * @return The new pair.
+     */
+    protected InputPair put(Integer id, Payload payload, boolean left) {
+        InputPair stored = storage.compute(id, current -> {
+            long version = versions.incrementAndGet();
+            InputPair pair = current;
+            if (pair != null && isExpired(pair, System.currentTimeMillis())) {
+                // an expired side must not come back with the new one
+                bytes.add(-pair.length());
+                EXPIRED.increment();
+                pair = null;
+            }
+            Payload previous = pair == null ? null : left ? pair.getLeft() : pair.getRight();
+            bytes.add(payload.length() - (previous == null ? 0 : previous.length()));
+            if (pair == null) {
+                return left ? new InputPair(payload, null, version) : new InputPair(null, payload, version);
+            }
+            return left ? pair.withLeft(payload, version) : pair.withRight(payload, version);
+        });
+        if (cleaner != null && maxBytes > 0 && bytes.sum() > maxBytes && cleanupRequested.compareAndSet(false, true)) {
+            cleaner.execute(this::cleanUp);
+        }
+        return stored;
+    }
+
+    /**
+     * Removes an id if it still holds the given pair, so a concurrent write
+     * is never lost. Subclasses that persist the pairs record the removal.
+     *
+     * @param id
+     * @param pair
+     * @return false if the id holds another pair.
+     */
+    protected boolean remove(Integer id, InputPair pair) {
+        if (storage.remove(id, pair)) {
+            bytes.add(-pair.length());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Visits the pairs stored, e.g. to copy them.
+     *
+     * @param visitor
+     */
+    protected void forEachPair(PairIndex.Visitor visitor) {
+        storage.forEach(visitor);
+    }
+
+    /**
+     * Removes the expired pairs and then, if the payloads are still over the
+     * budget, the least recently read ones, older versions first, until they
+     * are down to the low-water mark. It runs in background, but can be 
+     * called directly.
+     */
+    public void cleanUp() {
+        cleanupRequested.set(false);
+        long now = System.currentTimeMillis();
+        int expired = 0;
+        int evicted = 0;
+        if (ttl > 0) {
+            List<Map.Entry<Integer, InputPair>> entries = new ArrayList<>();
+            storage.forEach((id, pair) -> {
+                if (isExpired(pair, now)) {
+                    entries.add(new AbstractMap.SimpleImmutableEntry<>(id, pair));
+                }
+            });
+            for (Map.Entry<Integer, InputPair> entry : entries) {
+                if (remove(entry.getKey(), entry.getValue())) {
+                    expired++;
+                }
+            }
+            EXPIRED.add(expired);
+        }
+        if (maxBytes > 0 && bytes.sum() > maxBytes) {
+            List<Map.Entry<Integer, InputPair>> entries = new ArrayList<>(storage.size());
+            storage.forEach((id, pair) -> entries.add(new AbstractMap.SimpleImmutableEntry<>(id, pair)));
+            entries.sort((a, b) -> {
+                int byAccess = Long.compare(a.getValue().getAccessed(), b.getValue().getAccessed());
+                return byAccess != 0 ? byAccess : Long.compare(a.getValue().getVersion(), b.getValue().getVersion());
+            });
+            for (int i = 0; i < entries.size() && bytes.sum() > lowWater; i++) {
+                if (remove(entries.get(i).getKey(), entries.get(i).getValue())) {
+                    evicted++;
+                }
+            }
+            EVICTED.add(evicted);
+        }
+        if (expired > 0 || evicted > 0) {
+            Logger.debug("repository cleaned up", this.getClass(), "expired", expired, "evicted", evicted, "bytes", bytes.sum());
+        }
+    }
+}
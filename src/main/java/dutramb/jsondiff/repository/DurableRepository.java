@@ -0,0 +1,370 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.repository;
+
+import dutramb.jsondiff.config.Settings;
+import dutramb.jsondiff.log.Logger;
+import dutramb.jsondiff.model.InputPair;
+import dutramb.jsondiff.model.Payload;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the payloads in RAM, like {@code MapRepository}, and makes them 
+ * survive restarts and crashes with a {@code WriteAheadLog} and snapshots.
+ * <p>
+ * Every insert and removal is appended to the log before it is 
+ * acknowledged. The log is forced to disk in groups, so requests share the
+ * {@code fsync}s; with {@code JSONDIFF_WAL_SYNC=false} they don't wait for 
+ * it at all, and up to {@code JSONDIFF_WAL_FLUSH_MS} of writes may be lost
+ * in a crash.
+ * <p>
+ * Every {@code JSONDIFF_SNAPSHOT_INTERVAL_S} the log is rotated and the 
+ * pairs stored are written to {@code snapshot-N.dat}, one record per side,
+ * in the log format. It is renamed into place once it is on disk, and then
+ * the older segments and snapshots are deleted. The snapshot is taken while
+ * writes go on, so it may already hold some records of segment N and later;
+ * replaying them again gives the same pairs, since every record sets a whole
+ * side.
+ * <p>
+ * On startup the latest snapshot and then the segments from N on are 
+ * mapped and replayed. A record torn by a crash ends the replay of its 
+ * segment. The time to live of the pairs loaded starts again.
+ *
+ * @author Marcio Branquinho Dutra
+ */
+public class DurableRepository extends AbstractRepository implements Closeable {
+
+    private static final Pattern SEGMENT = Pattern.compile("wal-(\\d+)\\.log");
+    private static final Pattern SNAPSHOT = Pattern.compile("snapshot-(\\d+)\\.dat");
+
+    private final Path directory;
+    private final WriteAheadLog log;
+    private final ScheduledExecutorService snapshots;
+    private long snapshot = -1;
+
+    /**
+     * Opens the storage at a directory, recovering the pairs stored there.
+     *
+     * @param directory It is created if it doesn't exist.
+     * @param sync true to acknowledge writes only once they are on disk.
+     * @param flushInterval Milliseconds between forces of the log without 
+     * sync.
+     * @param segmentSize Bytes of each log segment.
+     * @param snapshotInterval Seconds between snapshots, 0 to take them only
+     * when {@link #snapshot()} is called.
+     * @throws IOException
+     */
+    public DurableRepository(Path directory, boolean sync, long flushInterval, long segmentSize, long snapshotInterval) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        long next = recover();
+        this.log = new WriteAheadLog(directory, next, sync, flushInterval, segmentSize);
+        if (snapshotInterval > 0) {
+            this.snapshots = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "jsondiff-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.snapshots.scheduleWithFixedDelay(() -> {
+                try {
+                    snapshot();
+                } catch (IOException | RuntimeException e) {
+                    Logger.severe("Snapshot not written", DurableRepository.class, e, "directory", directory);
+                }
+            }, snapshotInterval, snapshotInterval, TimeUnit.SECONDS);
+        } else {
+            this.snapshots = null;
+        }
+    }
+
+    private static class Holder {
+        private static final DurableRepository INSTANCE = open();
+
+        private static DurableRepository open() {
+            Path directory = Paths.get(Settings.get("JSONDIFF_DATA_DIR").orElse("json-diff-data"));
+            try {
+                DurableRepository repository = new DurableRepository(directory,
+                        Settings.getBoolean("JSONDIFF_WAL_SYNC", true),
+                        Settings.getLong("JSONDIFF_WAL_FLUSH_MS", 10),
+                        Settings.getLong("JSONDIFF_WAL_SEGMENT_SIZE", 256L * 1024 * 1024),
+                        Settings.getLong("JSONDIFF_SNAPSHOT_INTERVAL_S", 600));
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        repository.close();
+                    } catch (IOException e) {
+                        Logger.warn("Write-ahead log not closed", DurableRepository.class, e, "directory", directory);
+                    }
+                }, "jsondiff-wal-close"));
+                return repository;
+            } catch (IOException e) {
+                Logger.severe("Durable repository was not opened", DurableRepository.class, e, "directory", directory);
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    public static Repository getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    @Override
+    public void insertLeftPayload(Integer id, Payload payload) {
+        if (Logger.isDebugEnabled()) {
+            Logger.debug("insert left payload", this.getClass(), "id", id, "payload", payload);
+        }
+        store(id, payload, WriteAheadLog.LEFT);
+    }
+
+    @Override
+    public void insertRightPayload(Integer id, Payload payload) {
+        if (Logger.isDebugEnabled()) {
+            Logger.debug("insert right payload", this.getClass(), "id", id, "payload", payload);
+        }
+        store(id, payload, WriteAheadLog.RIGHT);
+    }
+
+    /**
+     * Logs the write and applies it holding the log, so the log has the 
+     * writes in the order they were applied, then waits for the disk.
+     */
+    private void store(Integer id, Payload payload, byte side) {
+        payload.getTree();
+        long sequence;
+        synchronized (log) {
+            sequence = log.append(id, side, payload);
+            put(id, payload, side == WriteAheadLog.LEFT);
+        }
+        log.sync(sequence);
+    }
+
+    @Override
+    protected boolean remove(Integer id, InputPair pair) {
+        if (log == null) {
+            // an eviction while recovering, the pair comes back on restart
+            return super.remove(id, pair);
+        }
+        long sequence;
+        synchronized (log) {
+            if (!super.remove(id, pair)) {
+                return false;
+            }
+            sequence = log.append(id, WriteAheadLog.REMOVED, null);
+        }
+        log.sync(sequence);
+        return true;
+    }
+
+    /**
+     * Writes a snapshot of the pairs stored and deletes the log segments it
+     * replaces.
+     *
+     * @throws IOException
+     */
+    public synchronized void snapshot() throws IOException {
+        long number = log.rotate();
+        Path temporary = directory.resolve(String.format("snapshot-%010d.tmp", number));
+        long[] records = new long[1];
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer[] buffer = {ByteBuffer.allocate(1 << 20)};
+            IOException[] failure = new IOException[1];
+            forEachPair((id, pair) -> {
+                try {
+                    write(channel, buffer, id, WriteAheadLog.LEFT, pair.getLeft());
+                    write(channel, buffer, id, WriteAheadLog.RIGHT, pair.getRight());
+                    records[0] += (pair.getLeft() == null ? 0 : 1) + (pair.getRight() == null ? 0 : 1);
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+            drain(channel, buffer[0]);
+            channel.force(true);
+        }
+        Files.move(temporary, snapshotPath(number), StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory();
+        snapshot = number;
+        deleteBefore(number);
+        Logger.info("Snapshot written", this.getClass(), "snapshot", number, "records", records[0]);
+    }
+
+    private static void write(FileChannel channel, ByteBuffer[] buffer, int id, byte side, Payload payload) throws IOException {
+        if (payload == null) {
+            return;
+        }
+        int size = WriteAheadLog.HEADER_SIZE + payload.length();
+        if (buffer[0].remaining() < size) {
+            drain(channel, buffer[0]);
+            if (buffer[0].capacity() < size) {
+                buffer[0] = ByteBuffer.allocate(size);
+            }
+        }
+        WriteAheadLog.encode(buffer[0], id, side, payload);
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Replays the latest snapshot and the log segments after it.
+     *
+     * @return Number of the segment to write next.
+     */
+    private long recover() throws IOException {
+        long latest = -1;
+        List<Long> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                Matcher segment = SEGMENT.matcher(name);
+                Matcher snapshotName = SNAPSHOT.matcher(name);
+                if (segment.matches()) {
+                    segments.add(Long.parseLong(segment.group(1)));
+                } else if (snapshotName.matches()) {
+                    latest = Math.max(latest, Long.parseLong(snapshotName.group(1)));
+                } else if (name.endsWith(".tmp")) {
+                    Files.delete(file);
+                }
+            }
+        }
+        Collections.sort(segments);
+        long start = System.nanoTime();
+        long[] records = new long[1];
+        WriteAheadLog.Visitor replay = (id, side, hash, bytes) -> {
+            records[0]++;
+            if (side == WriteAheadLog.REMOVED) {
+                InputPair pair = getInputPair(id);
+                if (pair != null) {
+                    super.remove(id, pair);
+                }
+                return;
+            }
+            byte[] copy = new byte[bytes.remaining()];
+            bytes.get(copy);
+            put(id, new Payload(ByteBuffer.wrap(copy), hash), side == WriteAheadLog.LEFT);
+        };
+        if (latest >= 0) {
+            WriteAheadLog.replay(snapshotPath(latest), replay);
+            snapshot = latest;
+        }
+        long next = Math.max(latest, 0);
+        for (long segment : segments) {
+            if (segment < latest) {
+                continue;
+            }
+            Path path = WriteAheadLog.segmentPath(directory, segment);
+            long valid = WriteAheadLog.replay(path, replay);
+            if (valid < Files.size(path)) {
+                Logger.warn("Torn log segment cut", this.getClass(), null, "segment", segment, "valid bytes", valid);
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                    channel.truncate(valid);
+                }
+            }
+            next = Math.max(next, segment + 1);
+        }
+        deleteBefore(latest);
+        Logger.info("Durable repository recovered", this.getClass(), "directory", directory, "snapshot", latest,
+                "segments", segments.size(), "records", records[0], "pairs", getSize(),
+                "millis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return next;
+    }
+
+    /**
+     * Deletes the segments and snapshots older than a snapshot.
+     */
+    private void deleteBefore(long number) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                Matcher segment = SEGMENT.matcher(name);
+                Matcher snapshotName = SNAPSHOT.matcher(name);
+                if (segment.matches() && Long.parseLong(segment.group(1)) < number
+                        || snapshotName.matches() && Long.parseLong(snapshotName.group(1)) < number) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes the rename of a snapshot durable. Not every platform can open a
+     * directory; there the rename is left to the file system.
+     */
+    private void forceDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            Logger.debug("Directory not forced", this.getClass(), e, "directory", directory);
+        }
+    }
+
+    private Path snapshotPath(long number) {
+        return directory.resolve(String.format("snapshot-%010d.dat", number));
+    }
+
+    /**
+     * @return Number of the latest snapshot, -1 if none was taken.
+     */
+    public long getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Stops the snapshots and closes the log, forcing the pending writes.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (snapshots != null) {
+            snapshots.shutdownNow();
+        }
+        log.close();
+    }
+}
@@ -24,57 +24,76 @@
 package dutramb.jsondiff.repository;
 
 import dutramb.jsondiff.log.Logger;
-import dutramb.jsondiff.model.Input;
-import java.util.HashMap;
-import java.util.Map;
+import dutramb.jsondiff.model.Payload;
 
 /**
  * Provides a simple storage on RAM to hold and offer data.
  * It is available in a singleton pattern, just to emulate a data 
  * storage while the service is running.
+ * <p>
+ * Both sides of an id are kept together in one {@code InputPair}, in the
+ * compact {@code Payload} form. Reads are lock-free and writes replace the 
+ * pair atomically, so concurrent requests never lose updates.
  * 
  * @author Marcio Branquinho Dutra
  */
-public class MapRepository implements Repository{
-    
-    private static Repository instance;
-    
-    private Map<Integer, Input> leftStorage = new HashMap<>();
-    private Map<Integer, Input> rightStorage = new HashMap<>();
+public class MapRepository extends AbstractRepository {
     
     private MapRepository(){
     }
-    
-    public static Repository getInstance(){
-        if(instance == null){
-            instance = new MapRepository();
-        }
-        return instance;
+
+    /**
+     * Creates a repository apart from the shared one, cleaned up only when
+     * {@code cleanUp} is called.
+     *
+     * @param ttl Milliseconds a pair is kept after its last write, 0 for
+     * ever.
+     * @param maxBytes Bytes of payloads kept, 0 for no limit.
+     */
+    public MapRepository(long ttl, long maxBytes) {
+        this(ttl, maxBytes, 0);
+    }
+
+    /**
+     * Creates a repository apart from the shared one.
+     *
+     * @param ttl Milliseconds a pair is kept after its last write, 0 for
+     * ever.
+     * @param maxBytes Bytes of payloads kept, 0 for no limit.
+     * @param cleanupInterval Milliseconds between cleanups, 0 to clean up
+     * only when {@code cleanUp} is called.
+     */
+    public MapRepository(long ttl, long maxBytes, long cleanupInterval) {
+        super(ttl, maxBytes, cleanupInterval);
     }
     
-    @Override
-    public Input getLeftInput(Integer id){
-        Input left = leftStorage.get(id);
-        Logger.debug("return left input", this.getClass(), "id", id, "left", left);
-        return left;
+    /**
+     * Lazily creates the single instance. The JVM guarantees that the holder
+     * class is initialized only once, even with concurrent callers.
+     */
+    private static class Holder {
+        private static final MapRepository INSTANCE = new MapRepository();
     }
     
-    @Override
-    public void insertLeftInput(Input input) {
-        Logger.debug("insert left input", this.getClass(), "input", input);
-        leftStorage.put(input.getId(), input);
+    public static Repository getInstance(){
+        return Holder.INSTANCE;
     }
     
     @Override
-    public Input getRightInput(Integer id){
-        Input right = rightStorage.get(id);
-        Logger.debug("return right input", this.getClass(), "id", id, "right", right);
-        return right;
+    public void insertLeftPayload(Integer id, Payload payload) {
+        if (Logger.isDebugEnabled()) {
+            Logger.debug("insert left payload", this.getClass(), "id", id, "payload", payload);
+        }
+        payload.getTree();
+        put(id, payload, true);
     }
     
     @Override
-    public void insertRightInput(Input input){
-        Logger.debug("insert right input", this.getClass(), "input", input);
-        rightStorage.put(input.getId(), input);
+    public void insertRightPayload(Integer id, Payload payload) {
+        if (Logger.isDebugEnabled()) {
+            Logger.debug("insert right payload", this.getClass(), "id", id, "payload", payload);
+        }
+        payload.getTree();
+        put(id, payload, false);
     }
 }
@@ -0,0 +1,431 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.repository;
+
+import dutramb.jsondiff.config.Settings;
+import dutramb.jsondiff.log.Logger;
+import dutramb.jsondiff.model.InputPair;
+import dutramb.jsondiff.model.Payload;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Provides a persistent storage backed by memory-mapped files. Payloads live
+ * outside the Java heap and survive restarts.
+ * <p>
+ * Payload bytes are appended to segment files ({@code segment-N.dat}) that
+ * are mapped in memory, so the stored payloads are views of the mapped 
+ * regions and are compared without being copied into the heap. Every insert
+ * also appends a record to {@code index.dat} with the id, the side and the
+ * extent (segment, offset, length) of its payload. On startup the index is
+ * replayed, the last record of each side winning, and incomplete records 
+ * left by a crash are discarded. Deleted, expired and evicted ids get a 
+ * record with no extent, so they stay removed after a restart; the time to 
+ * live of the ids loaded starts again on startup.
+ * <p>
+ * Writes go to the OS page cache and are not forced to disk on each request.
+ * The payloads still stored in each segment are counted: a segment whose payloads were
+ * all replaced or removed is deleted, so the budget, the time to live and
+ * deletes give back disk space. A segment with some live payload is kept 
+ * whole. On startup, the index is rewritten with only the live records when
+ * most of its records are dead.
+ *
+ * @author Marcio Branquinho Dutra
+ */
+public class MappedRepository extends AbstractRepository implements Closeable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 256 * 1024 * 1024;
+
+    /**
+     * id (4), side (1), segment (4), offset (4), length (4) and hash (8).
+     */
+    private static final int RECORD_SIZE = 25;
+    private static final byte LEFT = 0;
+    private static final byte RIGHT = 1;
+    private static final byte REMOVED = 2;
+
+    private final Path directory;
+    private final int segmentSize;
+    private FileChannel index;
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    private final Map<Integer, Segment> segments = new HashMap<>();
+    /**
+     * Extents of the stored sides of each id: segment, offset and length of
+     * the left side, then of the right one. Segment 0 is no side.
+     */
+    private final Map<Integer, int[]> extents = new HashMap<>();
+    private int segmentNumber;
+    private Segment segment;
+    private int segmentPosition;
+    private boolean loaded;
+
+    /**
+     * A mapped segment file and the number of its payloads still stored.
+     */
+    private static final class Segment {
+
+        private final int number;
+        private final MappedByteBuffer buffer;
+        private int live;
+
+        private Segment(int number, MappedByteBuffer buffer) {
+            this.number = number;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Opens the storage at a directory, loading the payloads stored there.
+     *
+     * @param directory It is created if it doesn't exist.
+     * @param segmentSize Size of each segment file. Larger payloads get a
+     * segment of their own.
+     * @throws IOException
+     */
+    public MappedRepository(Path directory, int segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+        this.index = FileChannel.open(directory.resolve("index.dat"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        open();
+    }
+
+    /**
+     * Loads the index, deletes the segments with no payload stored and 
+     * compacts the index if most of its records are dead.
+     */
+    private synchronized void open() throws IOException {
+        int records = load();
+        deleteDeadSegments();
+        loaded = true;
+        if (records > 2 * liveSides()) {
+            compactIndex();
+        }
+    }
+
+    private static class Holder {
+        private static final MappedRepository INSTANCE = open();
+
+        private static MappedRepository open() {
+            Path directory = Paths.get(Settings.get("JSONDIFF_DATA_DIR").orElse("json-diff-data"));
+            try {
+                return new MappedRepository(directory, Settings.getInt("JSONDIFF_SEGMENT_SIZE", DEFAULT_SEGMENT_SIZE));
+            } catch (IOException e) {
+                Logger.severe("Mapped repository was not opened", MappedRepository.class, e, "directory", directory);
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    public static Repository getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    @Override
+    public void insertLeftPayload(Integer id, Payload payload) {
+        if (Logger.isDebugEnabled()) {
+            Logger.debug("insert left payload", this.getClass(), "id", id, "payload", payload);
+        }
+        store(id, payload, LEFT);
+    }
+
+    @Override
+    public void insertRightPayload(Integer id, Payload payload) {
+        if (Logger.isDebugEnabled()) {
+            Logger.debug("insert right payload", this.getClass(), "id", id, "payload", payload);
+        }
+        store(id, payload, RIGHT);
+    }
+
+    /**
+     * Releases the index file. Mapped segments are released by the garbage 
+     * collector, once no payload refers to them.
+     *
+     * @throws IOException
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        index.close();
+    }
+
+    /**
+     * Copies the payload to the current segment and records its extent. Writes
+     * are serialized, so the index keeps the order the pairs were updated in.
+     */
+    private synchronized void store(Integer id, Payload payload, byte side) {
+        try {
+            if (segment == null || segmentPosition + payload.length() > segment.buffer.capacity()) {
+                Segment previous = segment;
+                segmentNumber++;
+                segment = new Segment(segmentNumber, createSegment(segmentNumber, Math.max(segmentSize, payload.length())));
+                segments.put(segmentNumber, segment);
+                segmentPosition = 0;
+                if (previous != null && previous.live == 0) {
+                    deleteSegment(previous);
+                }
+            }
+            int offset = segmentPosition;
+            ByteBuffer target = segment.buffer.duplicate();
+            target.position(offset);
+            target.put(payload.asBuffer());
+            segmentPosition += payload.length();
+
+            writeRecord(id, side, segmentNumber, offset, payload.length(), payload.getHash());
+            InputPair stored = put(id, new Payload(slice(segment.buffer, offset, payload.length()), payload.getHash(), payload.getTree()), side == LEFT);
+            track(id, stored, side, segmentNumber, offset, payload.length());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Records the removal of an id, in the same order as the writes.
+     */
+    @Override
+    protected synchronized boolean remove(Integer id, InputPair pair) {
+        if (!super.remove(id, pair)) {
+            return false;
+        }
+        untrack(id);
+        try {
+            writeRecord(id, REMOVED, 0, 0, 0, 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return true;
+    }
+
+    /**
+     * Moves a side to its new extent, in the count of live payloads. The other side is 
+     * released too when the write dropped it, i.e. when it had expired.
+     */
+    private void track(Integer id, InputPair stored, byte side, int number, int offset, int length) {
+        int[] extent = extents.computeIfAbsent(id, key -> new int[6]);
+        int first = side == LEFT ? 0 : 3;
+        int other = side == LEFT ? 3 : 0;
+        release(extent, first);
+        if ((side == LEFT ? stored.getRight() : stored.getLeft()) == null) {
+            release(extent, other);
+        }
+        extent[first] = number;
+        extent[first + 1] = offset;
+        extent[first + 2] = length;
+        segments.get(number).live++;
+    }
+
+    private void untrack(Integer id) {
+        int[] extent = extents.remove(id);
+        if (extent != null) {
+            release(extent, 0);
+            release(extent, 3);
+        }
+    }
+
+    /**
+     * Releases the extent of a side, deleting its segment when nothing stored
+     * is left in it, unless it is being written or the index is being 
+     * loaded.
+     */
+    private void release(int[] extent, int first) {
+        if (extent[first] == 0) {
+            return;
+        }
+        Segment released = segments.get(extent[first]);
+        extent[first] = 0;
+        released.live--;
+        if (released.live == 0 && loaded && released != segment) {
+            deleteSegment(released);
+        }
+    }
+
+    /**
+     * Deletes the file of a segment. Payloads that still refer to it, e.g.
+     * while being compared, keep reading the mapped pages until they are 
+     * collected.
+     */
+    private void deleteSegment(Segment dead) {
+        segments.remove(dead.number);
+        try {
+            Files.deleteIfExists(segmentPath(dead.number));
+        } catch (IOException e) {
+            Logger.warn("Segment was not deleted", this.getClass(), e, "segment", dead.number);
+        }
+    }
+
+    /**
+     * Deletes the segment files with no live payload after loading, 
+     * including the ones no record refers to.
+     */
+    private void deleteDeadSegments() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "segment-*.dat")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                int number = Integer.parseInt(name.substring("segment-".length(), name.length() - ".dat".length()));
+                segmentNumber = Math.max(segmentNumber, number);
+                Segment loaded = segments.get(number);
+                if (loaded == null || loaded.live == 0) {
+                    segments.remove(number);
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private int liveSides() {
+        int sides = 0;
+        for (int[] extent : extents.values()) {
+            sides += (extent[0] == 0 ? 0 : 1) + (extent[3] == 0 ? 0 : 1);
+        }
+        return sides;
+    }
+
+    /**
+     * Rewrites the index with a record for each live side, replacing the old
+     * one atomically.
+     */
+    private void compactIndex() throws IOException {
+        Path compacted = directory.resolve("index.tmp");
+        FileChannel previous = index;
+        index = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        for (Map.Entry<Integer, int[]> entry : extents.entrySet()) {
+            InputPair pair = getInputPair(entry.getKey());
+            int[] extent = entry.getValue();
+            if (extent[0] != 0) {
+                writeRecord(entry.getKey(), LEFT, extent[0], extent[1], extent[2], pair.getLeft().getHash());
+            }
+            if (extent[3] != 0) {
+                writeRecord(entry.getKey(), RIGHT, extent[3], extent[4], extent[5], pair.getRight().getHash());
+            }
+        }
+        index.force(true);
+        previous.close();
+        Files.move(compacted, directory.resolve("index.dat"), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        Logger.info("Mapped repository index compacted", this.getClass(), "directory", directory, "records", index.size() / RECORD_SIZE);
+    }
+
+    private void writeRecord(int id, byte side, int number, int offset, int length, long hash) throws IOException {
+        record.clear();
+        record.putInt(id).put(side).putInt(number).putInt(offset).putInt(length).putLong(hash);
+        record.flip();
+        while (record.hasRemaining()) {
+            index.write(record);
+        }
+    }
+
+    /**
+     * Replays the index. The next segment written is a new one, after the 
+     * last segment found. Records in segments deleted before are skipped:
+     * later records always replace or remove them.
+     *
+     * @return The number of records.
+     */
+    private synchronized int load() throws IOException {
+        long size = index.size() - index.size() % RECORD_SIZE;
+        ByteBuffer records = ByteBuffer.allocate(RECORD_SIZE * 4096);
+        long position = 0;
+        int count = 0;
+        while (position < size) {
+            records.clear();
+            records.limit((int) Math.min(records.capacity(), size - position));
+            while (records.hasRemaining()) {
+                index.read(records, position + records.position());
+            }
+            records.flip();
+            position += records.limit();
+            while (records.remaining() >= RECORD_SIZE) {
+                int id = records.getInt();
+                byte side = records.get();
+                int number = records.getInt();
+                int offset = records.getInt();
+                int length = records.getInt();
+                long hash = records.getLong();
+                count++;
+                segmentNumber = Math.max(segmentNumber, number);
+                if (side == REMOVED) {
+                    InputPair pair = getInputPair(id);
+                    if (pair != null) {
+                        super.remove(id, pair);
+                    }
+                    untrack(id);
+                    continue;
+                }
+                Segment mapped = segments.get(number);
+                if (mapped == null) {
+                    try {
+                        mapped = new Segment(number, mapSegment(number));
+                    } catch (NoSuchFileException e) {
+                        continue;
+                    }
+                    segments.put(number, mapped);
+                }
+                InputPair stored = put(id, new Payload(slice(mapped.buffer, offset, length), hash), side == LEFT);
+                track(id, stored, side, number, offset, length);
+            }
+        }
+        // drops an incomplete record left by a crash
+        index.truncate(size);
+        index.position(size);
+        Logger.info("Mapped repository loaded", this.getClass(), "directory", directory, "records", count, "segments", segments.size());
+        return count;
+    }
+
+    private MappedByteBuffer createSegment(int number, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(number),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private MappedByteBuffer mapSegment(int number) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(number), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private Path segmentPath(int number) {
+        return directory.resolve(String.format("segment-%06d.dat", number));
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(offset);
+        slice.limit(offset + length);
+        return slice.slice();
+    }
+}
@@ -0,0 +1,272 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.repository;
+
+import dutramb.jsondiff.model.InputPair;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.function.UnaryOperator;
+
+/**
+ * Maps {@code int} ids to their {@code InputPair}, with both sides of an id 
+ * in one slot. It replaces a {@code ConcurrentHashMap<Integer, InputPair>}:
+ * there is no node nor boxed key per id, only an {@code int} and a reference
+ * in two arrays, found by linear probing.
+ * <p>
+ * The ids are spread over segments, each an open addressing table with its 
+ * own lock. Reads take no lock: a table is published whole, and a slot's 
+ * pair is read with acquire semantics after its key was written. Writes lock
+ * the segment of the id. A segment grows, or drops its removed slots, by 
+ * copying into a new table under its lock, so reads going on in the old 
+ * table are never disturbed and other segments keep working.
+ *
+ * @author Marcio Branquinho Dutra
+ */
+public class PairIndex {
+
+    private static final int SEGMENT_BITS = 6;
+    private static final int MIN_CAPACITY = 16;
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(InputPair[].class);
+    /**
+     * Marks a removed slot. The key of a slot never changes in a table, so
+     * the slot is reused only if the same id comes back.
+     */
+    private static final InputPair REMOVED = new InputPair(null, null, -1);
+
+    private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+
+    /**
+     * Visits the pairs stored.
+     */
+    public interface Visitor {
+
+        void visit(int id, InputPair pair);
+    }
+
+    public PairIndex() {
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * @param id
+     * @return The pair of the id, or null.
+     */
+    public InputPair get(int id) {
+        int hash = hash(id);
+        Table table = segmentFor(hash).table;
+        int mask = table.keys.length - 1;
+        for (int i = hash & mask;; i = (i + 1) & mask) {
+            InputPair pair = (InputPair) SLOTS.getAcquire(table.pairs, i);
+            if (pair == null) {
+                return null;
+            }
+            if (table.keys[i] == id) {
+                return pair == REMOVED ? null : pair;
+            }
+        }
+    }
+
+    /**
+     * Replaces the pair of an id atomically. The update runs once, holding 
+     * the lock of the id's segment.
+     *
+     * @param id
+     * @param update Receives the current pair, or null, and returns the new
+     * one, or null to remove the id.
+     * @return The new pair.
+     */
+    public InputPair compute(int id, UnaryOperator<InputPair> update) {
+        int hash = hash(id);
+        Segment segment = segmentFor(hash);
+        synchronized (segment) {
+            Table table = segment.table;
+            int slot = segment.find(table, id, hash);
+            InputPair current = slot < 0 ? null : table.pairs[slot];
+            InputPair next = update.apply(current == REMOVED ? null : current);
+            if (next == null) {
+                if (current != null && current != REMOVED) {
+                    SLOTS.setRelease(table.pairs, slot, REMOVED);
+                    segment.size--;
+                }
+                return null;
+            }
+            if (current != null) {
+                SLOTS.setRelease(table.pairs, slot, next);
+                if (current == REMOVED) {
+                    segment.size++;
+                }
+                return next;
+            }
+            if (segment.used + 1 > table.keys.length - (table.keys.length >>> 2)) {
+                table = segment.resize();
+            }
+            segment.insert(table, id, hash, next);
+            segment.size++;
+            segment.used++;
+            return next;
+        }
+    }
+
+    /**
+     * Removes an id if it still holds the expected pair.
+     *
+     * @param id
+     * @param expected
+     * @return false if the id holds another pair, or nothing.
+     */
+    public boolean remove(int id, InputPair expected) {
+        int hash = hash(id);
+        Segment segment = segmentFor(hash);
+        synchronized (segment) {
+            Table table = segment.table;
+            int slot = segment.find(table, id, hash);
+            if (slot < 0 || table.pairs[slot] != expected) {
+                return false;
+            }
+            SLOTS.setRelease(table.pairs, slot, REMOVED);
+            segment.size--;
+            return true;
+        }
+    }
+
+    /**
+     * @return The number of ids stored.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    /**
+     * Visits the pairs stored, without locking. Pairs written meanwhile may
+     * or may not be visited.
+     *
+     * @param visitor
+     */
+    public void forEach(Visitor visitor) {
+        for (Segment segment : segments) {
+            Table table = segment.table;
+            for (int i = 0; i < table.keys.length; i++) {
+                InputPair pair = (InputPair) SLOTS.getAcquire(table.pairs, i);
+                if (pair != null && pair != REMOVED) {
+                    visitor.visit(table.keys[i], pair);
+                }
+            }
+        }
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments[hash >>> (Integer.SIZE - SEGMENT_BITS)];
+    }
+
+    /**
+     * Spreads the ids, usually sequential, over the slots (murmur3 
+     * finalizer).
+     */
+    private static int hash(int id) {
+        int h = id;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static final class Table {
+
+        private final int[] keys;
+        private final InputPair[] pairs;
+
+        private Table(int capacity) {
+            this.keys = new int[capacity];
+            this.pairs = new InputPair[capacity];
+        }
+    }
+
+    private static final class Segment {
+
+        private volatile Table table = new Table(MIN_CAPACITY);
+        private volatile int size;
+        /**
+         * Slots taken in the table, removed ones included.
+         */
+        private int used;
+
+        private int find(Table table, int id, int hash) {
+            int mask = table.keys.length - 1;
+            for (int i = hash & mask;; i = (i + 1) & mask) {
+                if (table.pairs[i] == null) {
+                    return -1;
+                }
+                if (table.keys[i] == id) {
+                    return i;
+                }
+            }
+        }
+
+        private void insert(Table table, int id, int hash, InputPair pair) {
+            int mask = table.keys.length - 1;
+            int i = hash & mask;
+            while (table.pairs[i] != null) {
+                i = (i + 1) & mask;
+            }
+            table.keys[i] = id;
+            SLOTS.setRelease(table.pairs, i, pair);
+        }
+
+        /**
+         * Copies the stored pairs to a table with at most half of its slots
+         * taken, dropping the removed ones, and publishes it.
+         */
+        private Table resize() {
+            Table old = table;
+            int capacity = MIN_CAPACITY;
+            while (capacity < (size + 1) * 2) {
+                capacity <<= 1;
+            }
+            Table resized = new Table(capacity);
+            int mask = capacity - 1;
+            for (int i = 0; i < old.keys.length; i++) {
+                InputPair pair = old.pairs[i];
+                if (pair != null && pair != REMOVED) {
+                    int j = hash(old.keys[i]) & mask;
+                    while (resized.pairs[j] != null) {
+                        j = (j + 1) & mask;
+                    }
+                    resized.keys[j] = old.keys[i];
+                    resized.pairs[j] = pair;
+                }
+            }
+            used = size;
+            table = resized;
+            return resized;
+        }
+    }
+}
@@ -24,6 +24,8 @@
 package dutramb.jsondiff.repository;
 
 import dutramb.jsondiff.model.Input;
+import dutramb.jsondiff.model.InputPair;
+import dutramb.jsondiff.model.Payload;
 
 /**
  * Provides common methods to store and access data.
@@ -48,6 +50,14 @@ public interface Repository {
      */
     public void insertLeftInput(Input input);
 
+    /**
+     * Stores payload data from left endpoint. 
+     * 
+     * @param id
+     * @param payload 
+     */
+    public void insertLeftPayload(Integer id, Payload payload);
+
     /**
      * Returns the input data that came from right endpoint
      * and is related to the id.
@@ -63,4 +73,39 @@ public interface Repository {
      * @param input 
      */
     public void insertRightInput(Input input);
+
+    /**
+     * Stores payload data from right endpoint. 
+     * 
+     * @param id
+     * @param payload 
+     */
+    public void insertRightPayload(Integer id, Payload payload);
+
+    /**
+     * Returns both inputs related to the id, as they were stored 
+     * at the same moment.
+     *
+     * @param id
+     * @return Null if no input was stored for the id.
+     */
+    public InputPair getInputPair(Integer id);
+
+    /**
+     * Removes both inputs of an id.
+     *
+     * @param id
+     * @return false if no input was stored for the id.
+     */
+    public boolean delete(Integer id);
+
+    /**
+     * @return The number of ids stored.
+     */
+    public int getSize();
+
+    /**
+     * @return The bytes of all payloads stored.
+     */
+    public long getBytes();
 }
@@ -0,0 +1,72 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.repository;
+
+import dutramb.jsondiff.config.Settings;
+
+/**
+ * Provides the repository the service works with, chosen by
+ * {@code JSONDIFF_REPOSITORY}:
+ * <ul>
+ * <li>{@code memory} (default): {@code MapRepository}, data is lost on 
+ * restart.</li>
+ * <li>{@code mapped}: {@code MappedRepository}, data is kept in 
+ * memory-mapped files at {@code JSONDIFF_DATA_DIR}.</li>
+ * <li>{@code durable}: {@code DurableRepository}, data is kept in RAM and
+ * recovered from a write-ahead log and snapshots at 
+ * {@code JSONDIFF_DATA_DIR}.</li>
+ * <li>{@code sharded}: {@code ShardedRepository}, data is split over
+ * {@code JSONDIFF_SHARDS} repositories in RAM.</li>
+ * </ul>
+ *
+ * @author Marcio Branquinho Dutra
+ */
+public class RepositoryFactory {
+
+    private RepositoryFactory() {
+    }
+
+    private static class Holder {
+        private static final Repository INSTANCE = create(Settings.get("JSONDIFF_REPOSITORY").orElse("memory"));
+    }
+
+    public static Repository getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    private static Repository create(String type) {
+        switch (type.toLowerCase()) {
+            case "memory":
+                return MapRepository.getInstance();
+            case "mapped":
+                return MappedRepository.getInstance();
+            case "durable":
+                return DurableRepository.getInstance();
+            case "sharded":
+                return ShardedRepository.getInstance();
+            default:
+                throw new IllegalArgumentException("Unknown repository type: " + type);
+        }
+    }
+}
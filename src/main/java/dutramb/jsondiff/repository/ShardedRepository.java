@@ -0,0 +1,155 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.repository;
+
+import dutramb.jsondiff.cluster.HashRing;
+import dutramb.jsondiff.config.Settings;
+import dutramb.jsondiff.model.Input;
+import dutramb.jsondiff.model.InputPair;
+import dutramb.jsondiff.model.Payload;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits the ids over shards in RAM, each a {@code MapRepository} with its
+ * own index, locks, version and byte counters and cleanup thread. Ids are 
+ * assigned to shards by consistent hashing, so an id always lives in the 
+ * same shard. The byte budget is split evenly among the shards.
+ * <p>
+ * The number of shards is set by {@code JSONDIFF_SHARDS}, the number of 
+ * cores by default.
+ *
+ * @author Marcio Branquinho Dutra
+ */
+public class ShardedRepository implements Repository {
+
+    private final HashRing<Integer> ring;
+    private final AbstractRepository[] shards;
+
+    /**
+     * @param shards Number of shards.
+     * @param ttl Milliseconds a pair is kept after its last write, 0 for
+     * ever.
+     * @param maxBytes Bytes of payloads kept by all shards, 0 for no limit.
+     * @param cleanupInterval Milliseconds between cleanups of each shard, 0
+     * to clean up only when {@code cleanUp} is called.
+     */
+    public ShardedRepository(int shards, long ttl, long maxBytes, long cleanupInterval) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("JSONDIFF_SHARDS must be at least 1, it is " + shards);
+        }
+        List<Integer> names = new ArrayList<>();
+        this.shards = new AbstractRepository[shards];
+        for (int i = 0; i < shards; i++) {
+            names.add(i);
+            this.shards[i] = new MapRepository(ttl, maxBytes / shards, cleanupInterval);
+        }
+        this.ring = new HashRing<>(names);
+    }
+
+    private static class Holder {
+        private static final ShardedRepository INSTANCE = new ShardedRepository(
+                Settings.getInt("JSONDIFF_SHARDS", Runtime.getRuntime().availableProcessors()),
+                AbstractRepository.TTL, AbstractRepository.MAX_BYTES, AbstractRepository.CLEANUP_INTERVAL);
+    }
+
+    public static Repository getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * @param id
+     * @return The shard owning the id.
+     */
+    public AbstractRepository shardOf(Integer id) {
+        return shards[ring.ownerOf(id)];
+    }
+
+    @Override
+    public Input getLeftInput(Integer id) {
+        return shardOf(id).getLeftInput(id);
+    }
+
+    @Override
+    public void insertLeftInput(Input input) {
+        shardOf(input.getId()).insertLeftInput(input);
+    }
+
+    @Override
+    public void insertLeftPayload(Integer id, Payload payload) {
+        shardOf(id).insertLeftPayload(id, payload);
+    }
+
+    @Override
+    public Input getRightInput(Integer id) {
+        return shardOf(id).getRightInput(id);
+    }
+
+    @Override
+    public void insertRightInput(Input input) {
+        shardOf(input.getId()).insertRightInput(input);
+    }
+
+    @Override
+    public void insertRightPayload(Integer id, Payload payload) {
+        shardOf(id).insertRightPayload(id, payload);
+    }
+
+    @Override
+    public InputPair getInputPair(Integer id) {
+        return shardOf(id).getInputPair(id);
+    }
+
+    @Override
+    public boolean delete(Integer id) {
+        return shardOf(id).delete(id);
+    }
+
+    @Override
+    public int getSize() {
+        int size = 0;
+        for (AbstractRepository shard : shards) {
+            size += shard.getSize();
+        }
+        return size;
+    }
+
+    @Override
+    public long getBytes() {
+        long bytes = 0;
+        for (AbstractRepository shard : shards) {
+            bytes += shard.getBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Cleans up all shards now.
+     */
+    public void cleanUp() {
+        for (AbstractRepository shard : shards) {
+            shard.cleanUp();
+        }
+    }
+}
@@ -0,0 +1,471 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.repository;
+
+import dutramb.jsondiff.log.Logger;
+import dutramb.jsondiff.model.Payload;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Appends the changes of a repository to segment files 
+ * ({@code wal-N.log}), forcing them to disk in groups.
+ * <p>
+ * Appends only copy the record to a buffer in memory. A background thread 
+ * writes the buffer and forces it to disk, while new appends go to a second
+ * buffer, so one {@code fsync} covers every record appended during the 
+ * previous one. With {@code sync}, callers wait for the group holding their 
+ * record; without it they don't wait, and the thread forces the log at most
+ * every flush interval. Records larger than {@code LARGE_RECORD} are not 
+ * copied: the thread writes their payload straight from the stored bytes, in
+ * the same order, and the buffers go back to their default size after a 
+ * flush. Once a write fails, whichever thread runs it (the flusher, a 
+ * rotation or the close), the log stops: nothing else is written, appends 
+ * and waiting callers fail, and no record after the failure is ever taken
+ * as durable.
+ * <p>
+ * Records are {@code length (4), crc32c (4), id (4), side (1), hash (8)} 
+ * and the payload bytes, so a record torn by a crash is detected on replay.
+ * Appends are serialized by the monitor of the log; callers holding it 
+ * while updating their index keep the log in the same order as the index.
+ *
+ * @author Marcio Branquinho Dutra
+ */
+public class WriteAheadLog implements Closeable {
+
+    public static final byte LEFT = 0;
+    public static final byte RIGHT = 1;
+    public static final byte REMOVED = 2;
+
+    /**
+     * Bytes before the payload: length, crc, id, side and hash.
+     */
+    static final int HEADER_SIZE = 21;
+    private static final int MAPPED_WINDOW = 1 << 30;
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int LARGE_RECORD = BUFFER_SIZE / 4;
+
+    private final Path directory;
+    private final boolean sync;
+    private final long flushInterval;
+    private final long segmentSize;
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final Condition synced = syncLock.newCondition();
+    private final Object writeLock = new Object();
+    private final Thread flusher;
+
+    private ByteBuffer pending = ByteBuffer.allocate(BUFFER_SIZE);
+    private ByteBuffer writing = ByteBuffer.allocate(BUFFER_SIZE);
+    private List<LargeRecord> pendingLarge = new ArrayList<>();
+    private List<LargeRecord> writingLarge = new ArrayList<>();
+    private long appended;
+    private volatile long durable;
+    private volatile IOException failure;
+    private volatile boolean closed;
+    private FileChannel channel;
+    private long segment;
+    private long segmentBytes;
+
+    /**
+     * Opens a new segment after the ones found in the directory.
+     *
+     * @param directory
+     * @param segment Number of the new segment.
+     * @param sync true to make appenders wait for the disk.
+     * @param flushInterval Milliseconds between forces when not waiting.
+     * @param segmentSize Bytes after which a new segment is started.
+     * @throws IOException
+     */
+    public WriteAheadLog(Path directory, long segment, boolean sync, long flushInterval, long segmentSize) throws IOException {
+        this.directory = directory;
+        this.sync = sync;
+        this.flushInterval = flushInterval;
+        this.segmentSize = segmentSize;
+        this.segment = segment;
+        this.channel = open(segment);
+        this.flusher = new Thread(this::flushLoop, "jsondiff-wal");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    public static Path segmentPath(Path directory, long segment) {
+        return directory.resolve(String.format("wal-%010d.log", segment));
+    }
+
+    private FileChannel open(long number) throws IOException {
+        segmentBytes = 0;
+        return FileChannel.open(segmentPath(directory, number), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * A record written from its payload, at a position of the buffer.
+     */
+    private static final class LargeRecord {
+
+        private final int position;
+        private final int id;
+        private final byte side;
+        private final Payload payload;
+
+        private LargeRecord(int position, int id, byte side, Payload payload) {
+            this.position = position;
+            this.id = id;
+            this.side = side;
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * Appends a record to the buffer, or just a reference to a large one.
+     *
+     * @param id
+     * @param side LEFT, RIGHT or REMOVED.
+     * @param payload Null for REMOVED.
+     * @return Sequence of the record, to wait for with {@link #sync(long)}.
+     * @throws UncheckedIOException if the log failed to be written.
+     */
+    public synchronized long append(int id, byte side, Payload payload) {
+        if (closed) {
+            throw new IllegalStateException("Log closed");
+        }
+        if (failure != null) {
+            throw new UncheckedIOException("Log not written", failure);
+        }
+        int length = payload == null ? 0 : payload.length();
+        if (HEADER_SIZE + length > LARGE_RECORD) {
+            pendingLarge.add(new LargeRecord(pending.position(), id, side, payload));
+            if (sync) {
+                notifyAll();
+            }
+            return ++appended;
+        }
+        if (pending.remaining() < HEADER_SIZE + length) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + HEADER_SIZE + length));
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+        encode(pending, id, side, payload);
+        if (sync) {
+            notifyAll();
+        }
+        return ++appended;
+    }
+
+    /**
+     * Writes one record.
+     */
+    static void encode(ByteBuffer out, int id, byte side, Payload payload) {
+        int start = out.position();
+        out.position(start + HEADER_SIZE);
+        if (payload != null) {
+            out.put(payload.asBuffer());
+        }
+        putHeader(out, start, id, side, payload);
+    }
+
+    /**
+     * Writes the header of a record at a position, its checksum covering the
+     * payload that follows it.
+     */
+    private static void putHeader(ByteBuffer out, int start, int id, byte side, Payload payload) {
+        out.putInt(start + 8, id).put(start + 12, side).putLong(start + 13, payload == null ? 0 : payload.getHash());
+        ByteBuffer fields = out.duplicate();
+        fields.position(start + 8).limit(start + HEADER_SIZE);
+        CRC32C crc = new CRC32C();
+        crc.update(fields);
+        if (payload != null) {
+            crc.update(payload.asBuffer());
+        }
+        out.putInt(start, HEADER_SIZE - 8 + (payload == null ? 0 : payload.length())).putInt(start + 4, (int) crc.getValue());
+    }
+
+    /**
+     * Waits until a record is on disk, if the log was opened with sync.
+     *
+     * @param sequence
+     */
+    public void sync(long sequence) {
+        if (!sync) {
+            return;
+        }
+        syncLock.lock();
+        try {
+            while (durable < sequence) {
+                if (failure != null) {
+                    throw new UncheckedIOException("Log not written", failure);
+                }
+                synced.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for the log", e);
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * Forces the records appended so far and starts a new segment.
+     *
+     * @return Number of the new segment: it and the next ones hold every 
+     * record appended after this call.
+     * @throws IOException
+     */
+    public long rotate() throws IOException {
+        synchronized (writeLock) {
+            flush();
+            try {
+                channel.close();
+                segment++;
+                channel = open(segment);
+            } catch (IOException e) {
+                throw fail(e);
+            }
+            return segment;
+        }
+    }
+
+    /**
+     * Writes the pending records, forces them and wakes up their appenders.
+     * The write lock is always taken before the monitor of the log.
+     *
+     * @throws IOException if this or an earlier write failed.
+     */
+    private void flush() throws IOException {
+        synchronized (writeLock) {
+            if (failure != null) {
+                throw new IOException("Log not written", failure);
+            }
+            long sequence;
+            synchronized (this) {
+                if (!hasPending()) {
+                    return;
+                }
+                ByteBuffer full = pending;
+                pending = writing;
+                writing = full;
+                List<LargeRecord> large = pendingLarge;
+                pendingLarge = writingLarge;
+                writingLarge = large;
+                sequence = appended;
+            }
+            try {
+                writing.flip();
+                int from = 0;
+                for (LargeRecord record : writingLarge) {
+                    write(writing.duplicate().position(from).limit(record.position));
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                    putHeader(header, 0, record.id, record.side, record.payload);
+                    write(header);
+                    write(record.payload.asBuffer());
+                    from = record.position;
+                }
+                write(writing.position(from));
+                writingLarge.clear();
+                if (writing.capacity() > BUFFER_SIZE) {
+                    writing = ByteBuffer.allocate(BUFFER_SIZE);
+                } else {
+                    writing.clear();
+                }
+                channel.force(false);
+                if (segmentBytes >= segmentSize) {
+                    channel.close();
+                    segment++;
+                    channel = open(segment);
+                }
+            } catch (IOException e) {
+                throw fail(e);
+            }
+            syncLock.lock();
+            try {
+                durable = sequence;
+                synced.signalAll();
+            } finally {
+                syncLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Stops the log after a failed write and wakes up the callers waiting 
+     * for it.
+     *
+     * @return The failure, to be thrown.
+     */
+    private IOException fail(IOException e) {
+        Logger.severe("Write-ahead log not written", WriteAheadLog.class, e, "segment", segment);
+        failure = e;
+        syncLock.lock();
+        try {
+            synced.signalAll();
+        } finally {
+            syncLock.unlock();
+        }
+        return e;
+    }
+
+    private boolean hasPending() {
+        return pending.position() > 0 || !pendingLarge.isEmpty();
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        segmentBytes += buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * With sync, it forces as soon as there are records, gathering the ones
+     * appended meanwhile. Without it, it forces every flush interval.
+     */
+    private void flushLoop() {
+        while (true) {
+            try {
+                synchronized (this) {
+                    if (!sync && !closed) {
+                        wait(Math.max(1, flushInterval));
+                    }
+                    while (!hasPending() && !closed) {
+                        wait(sync ? 0 : Math.max(1, flushInterval));
+                    }
+                    if (closed) {
+                        return;
+                    }
+                }
+                flush();
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Forces the pending records and closes the segment.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (writeLock) {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Receives the records read from a file.
+     */
+    public interface Visitor {
+
+        /**
+         * @param id
+         * @param side LEFT, RIGHT or REMOVED.
+         * @param hash Hash of the payload.
+         * @param payload Payload bytes, valid only during the call.
+         */
+        void visit(int id, byte side, long hash, ByteBuffer payload);
+    }
+
+    /**
+     * Reads the records of a file, a log segment or a snapshot, mapping it 
+     * in windows of up to 1 GB. It stops at the first incomplete or corrupt
+     * record.
+     *
+     * @param file
+     * @param visitor
+     * @return Bytes of the valid records, where a torn file must be cut.
+     * @throws IOException
+     */
+    public static long replay(Path file, Visitor visitor) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            CRC32C crc = new CRC32C();
+            while (position + HEADER_SIZE <= size) {
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(size - position, MAPPED_WINDOW));
+                int offset = 0;
+                while (offset + HEADER_SIZE <= window.limit()) {
+                    int length = window.getInt(offset);
+                    if (length < HEADER_SIZE - 8 || position + offset + 8 + length > size) {
+                        return position + offset;
+                    }
+                    if (offset + 8 + length > window.limit()) {
+                        if (offset == 0) {
+                            window = channel.map(FileChannel.MapMode.READ_ONLY, position, 8 + length);
+                        } else {
+                            break;
+                        }
+                    }
+                    ByteBuffer body = window.duplicate();
+                    body.position(offset + 8).limit(offset + 8 + length);
+                    crc.reset();
+                    crc.update(body.duplicate());
+                    if ((int) crc.getValue() != window.getInt(offset + 4)) {
+                        return position + offset;
+                    }
+                    int id = body.getInt();
+                    byte side = body.get();
+                    long hash = body.getLong();
+                    visitor.visit(id, side, hash, body.slice());
+                    offset += 8 + length;
+                }
+                if (offset == 0) {
+                    return position;
+                }
+                position += offset;
+            }
+            return position;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.ws;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dutramb.jsondiff.logic.BatchDiff;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * Writes the results of a batch as a JSON array of {@code Output}, each one
+ * flushed as soon as its comparison completes.
+ *
+ * @author Marcio Branquinho Dutra
+ */
+class BatchStream implements StreamingOutput {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private final List<Integer> ids;
+
+    BatchStream(List<Integer> ids) {
+        this.ids = ids;
+    }
+
+    @Override
+    public void write(OutputStream stream) throws IOException {
+        try (JsonGenerator generator = MAPPER.getFactory().createGenerator(stream)) {
+            generator.writeStartArray();
+            BatchDiff.getInstance().compare(ids, output -> {
+                MAPPER.writeValue(generator, output);
+                generator.flush();
+            });
+            generator.writeEndArray();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.ws;
+
+import dutramb.jsondiff.model.Diff;
+import dutramb.jsondiff.model.Output;
+import dutramb.jsondiff.model.type.Result;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Compact binary form of a result, given by the result endpoint for 
+ * {@code Accept: application/octet-stream}. Numbers are unsigned LEB128 
+ * varints, so a typical run takes 2 to 4 bytes instead of ~30 in JSON:
+ * <blockquote><pre>
+ *  version     1 byte, currently 1
+ *  id          varint, zigzag encoded
+ *  result      1 byte, the ordinal of {@code Result}
+ *  runs        for each difference: varint length, varint gap from the end 
+ *              of the previous difference (from 0 for the first one)
+ *  end         varint 0, only if the result is DIFFERENT
+ *  next        varint, only if a page was requested and more are left
+ * </pre></blockquote>
+ *
+ * @author Marcio Branquinho Dutra
+ */
+public final class BinaryResult {
+
+    public static final int VERSION = 1;
+
+    private BinaryResult() {
+    }
+
+    /**
+     * Writes a result while its differences are read from an iterator.
+     *
+     * @param output The id and result type of the comparison.
+     * @param diffs The differences to write.
+     * @param limit The maximum number of differences to write. If more are
+     * left, the offset of the next one is written as the cursor.
+     * @param stream It is flushed, not closed.
+     * @throws IOException
+     */
+    public static void write(Output output, Iterator<Diff> diffs, long limit, OutputStream stream) throws IOException {
+        OutputStream out = new BufferedOutputStream(stream, 8192);
+        out.write(VERSION);
+        int id = output.getId();
+        writeVarint(out, ((id << 1) ^ (id >> 31)) & 0xFFFFFFFFL);
+        out.write(output.getResult().ordinal());
+        if (output.getResult() == Result.DIFFERENT) {
+            long end = 0;
+            long count = 0;
+            while (count < limit && diffs.hasNext()) {
+                Diff diff = diffs.next();
+                writeVarint(out, diff.getLength());
+                writeVarint(out, diff.getOffset() - end);
+                end = diff.getOffset() + diff.getLength();
+                count++;
+            }
+            writeVarint(out, 0);
+            if (diffs.hasNext()) {
+                writeVarint(out, diffs.next().getOffset());
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads a result written by {@code write}.
+     *
+     * @param stream
+     * @return The result, with its cursor if there is one.
+     * @throws IOException if the data is not a valid result.
+     */
+    public static Output read(InputStream stream) throws IOException {
+        InputStream in = new BufferedInputStream(stream, 8192);
+        int version = in.read();
+        if (version != VERSION) {
+            throw new IOException("Unknown binary result version: " + version);
+        }
+        int zigzag = (int) readVarint(in);
+        Output output = new Output((zigzag >>> 1) ^ -(zigzag & 1));
+        int result = in.read();
+        if (result < 0 || result >= Result.values().length) {
+            throw new IOException("Unknown result type: " + result);
+        }
+        output.setResult(Result.values()[result]);
+        if (output.getResult() == Result.DIFFERENT) {
+            List<Diff> diffList = new ArrayList<>();
+            long end = 0;
+            for (long length = readVarint(in); length != 0; length = readVarint(in)) {
+                long offset = end + readVarint(in);
+                diffList.add(new Diff((int) offset, (int) length));
+                end = offset + length;
+            }
+            output.setDiffList(diffList);
+            in.mark(1);
+            boolean more = in.read() >= 0;
+            in.reset();
+            if (more) {
+                output.setNext((int) readVarint(in));
+            }
+        }
+        return output;
+    }
+
+    private static void writeVarint(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Truncated binary result");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.ws;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import dutramb.jsondiff.model.Diff;
+import dutramb.jsondiff.model.Output;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * Writes a result as JSON while its differences are computed, one 
+ * {@code {offset,length}} pair at a time, so the whole list is never held 
+ * in memory. The JSON is the same the result endpoint gives.
+ *
+ * @author Marcio Branquinho Dutra
+ */
+class DiffStream implements StreamingOutput {
+
+    private static final JsonFactory FACTORY = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private final Output output;
+    private final Iterator<Diff> diffs;
+    private final long limit;
+
+    /**
+     * @param output The id and result type of the comparison.
+     * @param diffs The differences to write.
+     * @param limit The maximum number of differences to write. If more are
+     * left, the offset of the next one is written as the cursor.
+     */
+    DiffStream(Output output, Iterator<Diff> diffs, long limit) {
+        this.output = output;
+        this.diffs = diffs;
+        this.limit = limit;
+    }
+
+    @Override
+    public void write(OutputStream stream) throws IOException {
+        try (JsonGenerator generator = FACTORY.createGenerator(stream, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            generator.writeNumberField("id", output.getId());
+            generator.writeStringField("result", output.getResult().name());
+            generator.writeArrayFieldStart("diffList");
+            long count = 0;
+            while (count < limit && diffs.hasNext()) {
+                Diff diff = diffs.next();
+                generator.writeStartObject();
+                generator.writeNumberField("offset", diff.getOffset());
+                generator.writeNumberField("length", diff.getLength());
+                generator.writeEndObject();
+                count++;
+            }
+            generator.writeEndArray();
+            if (diffs.hasNext()) {
+                generator.writeNumberField("next", diffs.next().getOffset());
+            }
+            generator.writeEndObject();
+        }
+    }
+}
@@ -23,19 +23,53 @@
  */
 package dutramb.jsondiff.ws;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import dutramb.jsondiff.config.ServerSettings;
+import dutramb.jsondiff.config.Settings;
 import dutramb.jsondiff.log.Logger;
 import dutramb.jsondiff.logic.Comparator;
+import dutramb.jsondiff.logic.ComputePool;
+import dutramb.jsondiff.metrics.Histogram;
+import dutramb.jsondiff.metrics.Metrics;
+import dutramb.jsondiff.logic.DiffScheduler;
+import dutramb.jsondiff.logic.ResultCache;
+import dutramb.jsondiff.model.Diff;
+import dutramb.jsondiff.model.DiffRuns;
 import dutramb.jsondiff.model.Input;
+import dutramb.jsondiff.model.InputPair;
 import dutramb.jsondiff.model.Output;
-import dutramb.jsondiff.repository.MapRepository;
+import dutramb.jsondiff.model.Payload;
+import dutramb.jsondiff.model.type.Result;
+import dutramb.jsondiff.repository.RepositoryFactory;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
 /**
  * The {@code DiffWS} provides all service endpoints starting at '/v1/diff'.
@@ -45,46 +79,114 @@ import javax.ws.rs.core.Response;
 @Path("/v1/diff")
 public class DiffWS {
 
+    public static final int DEFAULT_PAGE_LIMIT = 1000;
+
+    private static final Histogram LEFT_BYTES = Metrics.getInstance().histogram("jsondiff_payload_bytes",
+            "Size of the stored payloads.", 1, "side", "left");
+    private static final Histogram RIGHT_BYTES = Metrics.getInstance().histogram("jsondiff_payload_bytes",
+            "Size of the stored payloads.", 1, "side", "right");
+    public static final long RESULT_TIMEOUT = Settings.getLong("JSONDIFF_RESULT_TIMEOUT_MS", 30000);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final ObjectReader IDS = MAPPER.readerFor(new TypeReference<List<Integer>>() {
+    });
+    private static final ObjectReader INPUTS = MAPPER.readerFor(new TypeReference<List<Input>>() {
+    });
+
     /**
-     * Left endpoint.
+     * Left endpoint. The body is read as a stream, straight into the
+     * compact form it is stored in.
      *
      * @param id Operation id.
-     * @param input JSON-based data input
-     * @return HTTP Response: 201 - Created for success.
+     * @param size Size of the body in bytes, if informed.
+     * @param body JSON-based data input, e.g. <code>{"value":"YWMvZGM="}</code>
+     * @return HTTP Response: 201 - Created for success. 
+     * 400 - Bad Request if the body is not valid.
      */
     @POST
     @Consumes(MediaType.APPLICATION_JSON)
     @Path("/{id}/left")
-    public Response left(@PathParam("id") Integer id, Input input) {
-        Logger.info("Request on left", this.getClass(), "id", id, "input", input);
-        input.setId(id);
-        MapRepository.getInstance().insertLeftInput(input);
-        return Response.status(Response.Status.CREATED).build();
+    public Response left(@PathParam("id") Integer id,
+            @DefaultValue("-1") @HeaderParam(HttpHeaders.CONTENT_LENGTH) long size, InputStream body) {
+        Logger.info("Request on left", this.getClass(), "id", id, "size", size);
+        return store(id, true, body, size, PayloadReader::readJson);
     }
 
     /**
-     * Right endpoint.
+     * Left endpoint for raw binary data. It is encoded to base64 while it is
+     * read, so it is compared exactly as its JSON form.
      *
      * @param id Operation id.
-     * @param input JSON-based data input
+     * @param size Size of the body in bytes, if informed.
+     * @param body Binary data input.
      * @return HTTP Response: 201 - Created for success.
      */
     @POST
+    @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+    @Path("/{id}/left")
+    public Response leftBinary(@PathParam("id") Integer id,
+            @DefaultValue("-1") @HeaderParam(HttpHeaders.CONTENT_LENGTH) long size, InputStream body) {
+        Logger.info("Request on left (binary)", this.getClass(), "id", id, "size", size);
+        return store(id, true, body, size, PayloadReader::readBinary);
+    }
+
+    /**
+     * Right endpoint. The body is read as a stream, straight into the
+     * compact form it is stored in.
+     *
+     * @param id Operation id.
+     * @param size Size of the body in bytes, if informed.
+     * @param body JSON-based data input, e.g. <code>{"value":"YWMvZGM="}</code>
+     * @return HTTP Response: 201 - Created for success. 
+     * 400 - Bad Request if the body is not valid.
+     */
+    @POST
     @Consumes(MediaType.APPLICATION_JSON)
     @Path("/{id}/right")
-    public Response right(@PathParam("id") Integer id, Input input) {
-        Logger.debug("Request on right", this.getClass(), "id", id, "input", input);
-        input.setId(id);
-        MapRepository.getInstance().insertRightInput(input);
-        return Response.status(Response.Status.CREATED).build();
+    public Response right(@PathParam("id") Integer id,
+            @DefaultValue("-1") @HeaderParam(HttpHeaders.CONTENT_LENGTH) long size, InputStream body) {
+        if (Logger.isDebugEnabled()) {
+            Logger.debug("Request on right", this.getClass(), "id", id, "size", size);
+        }
+        return store(id, false, body, size, PayloadReader::readJson);
+    }
+
+    /**
+     * Right endpoint for raw binary data. It is encoded to base64 while it is
+     * read, so it is compared exactly as its JSON form.
+     *
+     * @param id Operation id.
+     * @param size Size of the body in bytes, if informed.
+     * @param body Binary data input.
+     * @return HTTP Response: 201 - Created for success.
+     */
+    @POST
+    @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+    @Path("/{id}/right")
+    public Response rightBinary(@PathParam("id") Integer id,
+            @DefaultValue("-1") @HeaderParam(HttpHeaders.CONTENT_LENGTH) long size, InputStream body) {
+        if (Logger.isDebugEnabled()) {
+            Logger.debug("Request on right (binary)", this.getClass(), "id", id, "size", size);
+        }
+        return store(id, false, body, size, PayloadReader::readBinary);
     }
 
     /**
      * Result endpoint. It provides a JSON with the comparison's result.
      *
      * @param id Operation id
-     * @return HTTP Response: 401 - Not Found if the operation id doesn't exist
-     * or has just only one side information (just left or right).
+     * @param offset Position the differences start at, for pages.
+     * @param limit Maximum number of differences, for pages.
+     * @param stream Whether the differences are streamed.
+     * @param decoded Whether the bytes the inputs encode are compared.
+     * @param response Resumed with the HTTP Response: 401 - Not Found if the
+     * operation id doesn't exist or has just only one side information (just
+     * left or right).
+     * <p>
+     * 503 - Service Unavailable if the comparison takes longer than 
+     * {@code JSONDIFF_RESULT_TIMEOUT_MS}. It goes on in background and its
+     * result is cached, so the request can be repeated. Also if the 
+     * {@code ComputePool} is saturated.
      * <p>
      * 200 - OK for success. It returns 3 types of JSON according to
      * the comparison between data received on Left and Right.
@@ -115,19 +217,425 @@ public class DiffWS {
      *  }
      * </pre></blockquote>
      *
+     * <p> Large lists of differences can be read in pages, computed on 
+     * demand and not cached: {@code offset} is the position the page starts
+     * at and {@code limit} the maximum number of differences in it (1000 by
+     * default). When more differences are left, {@code next} gives the 
+     * offset of the next page:
+     * <blockquote><pre>
+     *  {"id":1,
+     *   "result":"DIFFERENT",
+     *   "diffList":[...],
+     *   "next":4096
+     *  }
+     * </pre></blockquote>
+     * With {@code stream=true} the differences are written while they are
+     * computed, with no limit unless one is informed.
+     * <p> With {@code decoded=true} the inputs are compared as the bytes 
+     * their base64 characters encode, so offsets and lengths are in decoded
+     * bytes. Each side is decoded for the request only, so the decoded 
+     * copies never outlive it; the full result is cached apart from the 
+     * result of the characters, pages are computed on demand.
+     * <p>
+     * The request doesn't hold the HTTP worker thread while the differences
+     * are computed: full results and pages are computed on the 
+     * {@code ComputePool}, and streams are written from it.
      */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/{id}")
-    public Response result(@PathParam("id") Integer id) {
-        Output output = new Comparator().compare(id);
+    public void result(@PathParam("id") Integer id, @QueryParam("offset") Integer offset,
+            @QueryParam("limit") Integer limit, @DefaultValue("false") @QueryParam("stream") boolean stream,
+            @DefaultValue("false") @QueryParam("decoded") boolean decoded, @Suspended AsyncResponse response) {
+        result(id, offset, limit, stream, decoded, false, response);
+    }
+
+    /**
+     * Result endpoint in the compact binary form described in 
+     * {@code BinaryResult}. It is chosen by 
+     * {@code Accept: application/octet-stream} and takes the same parameters
+     * as the JSON form.
+     *
+     * @param id Operation id
+     * @param offset Position the differences start at, for pages.
+     * @param limit Maximum number of differences, for pages.
+     * @param stream Whether the differences are streamed.
+     * @param decoded Whether the bytes the inputs encode are compared.
+     * @param response Resumed with the HTTP Response: 404 - Not Found if the
+     * operation id doesn't exist or has just only one side information. 
+     * 400 - Bad Request if an input is not valid base64 and 
+     * {@code decoded} is set. 503 - Service Unavailable if the comparison
+     * times out or the {@code ComputePool} is saturated. 200 - OK for 
+     * success.
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_OCTET_STREAM + ";qs=0.5")
+    @Path("/{id}")
+    public void binaryResult(@PathParam("id") Integer id, @QueryParam("offset") Integer offset,
+            @QueryParam("limit") Integer limit, @DefaultValue("false") @QueryParam("stream") boolean stream,
+            @DefaultValue("false") @QueryParam("decoded") boolean decoded, @Suspended AsyncResponse response) {
+        result(id, offset, limit, stream, decoded, true, response);
+    }
+
+    /**
+     * Delete endpoint. Removes both sides of the id.
+     *
+     * @param id Operation id.
+     * @return HTTP Response: 204 - No Content for success. 404 - Not Found if
+     * nothing is stored for the id.
+     */
+    @DELETE
+    @Path("/{id}")
+    public Response delete(@PathParam("id") Integer id) {
+        if (Logger.isDebugEnabled()) {
+            Logger.debug("Request on delete", this.getClass(), "id", id);
+        }
+        if (!RepositoryFactory.getInstance().delete(id)) {
+            return Response.status(Response.Status.NOT_FOUND).entity("Nothing stored for id=[" + id + "]").build();
+        }
+        ResultCache.getInstance().invalidate(id);
+        return Response.noContent().build();
+    }
+
+    private void result(Integer id, Integer offset, Integer limit, boolean stream, boolean decoded, boolean binary, AsyncResponse response) {
+        if (RESULT_TIMEOUT > 0) {
+            response.setTimeout(RESULT_TIMEOUT, TimeUnit.MILLISECONDS);
+            response.setTimeoutHandler(suspended -> suspended.resume(notReady(id)));
+        }
+        CompletableFuture<Response> answer;
+        if (offset != null || limit != null || stream) {
+            int start = offset == null ? 0 : offset;
+            answer = onComputePool(() -> page(id, start, limit, stream, decoded, binary));
+        } else {
+            DiffScheduler scheduler = DiffScheduler.getInstance();
+            answer = (decoded ? scheduler.getDecodedResultAsync(id) : scheduler.getResultAsync(id))
+                    .thenApply(output -> toResponse(id, output, binary));
+        }
+        answer.whenComplete((answered, error) -> {
+            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+            if (cause instanceof IllegalArgumentException) {
+                response.resume(notBase64(id));
+            } else if (cause instanceof RejectedExecutionException) {
+                response.resume(notReady(id));
+            } else if (error != null) {
+                Logger.severe("Comparison failed", this.getClass(), error, "id", id);
+                response.resume(error);
+            } else {
+                response.resume(answered);
+            }
+        });
+    }
+
+    /**
+     * Runs a task on the {@code ComputePool}, never on the caller.
+     *
+     * @return Fails with {@code RejectedExecutionException} if the pool is
+     * saturated.
+     */
+    private static CompletableFuture<Response> onComputePool(Supplier<Response> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, ComputePool.getInstance());
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<Response> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(e);
+            return rejected;
+        }
+    }
 
-        Logger.debug("Request on result", this.getClass(), "id", id, "output", output);
+    private Response toResponse(Integer id, Output output, boolean binary) {
+        if (Logger.isDebugEnabled()) {
+            Logger.debug("Request on result", this.getClass(), "id", id, "output", output, "binary", binary);
+        }
 
         if (output == null) {
             return Response.status(Response.Status.NOT_FOUND).entity("Result not found for id=[" + id + "]").build();
+        } else if (binary) {
+            Iterator<Diff> diffs = output.getDiffList() == null ? Collections.<Diff>emptyIterator() : output.getDiffList().iterator();
+            return Response.ok(binary(output, diffs, Long.MAX_VALUE)).build();
         } else {
             return Response.ok(output).build();
         }
     }
+
+    private static Response notReady(Integer id) {
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .entity("Result not ready for id=[" + id + "], try again later").build();
+    }
+
+    private static Response notBase64(Integer id) {
+        return Response.status(Response.Status.BAD_REQUEST).entity("Inputs of id=[" + id + "] are not valid base64").build();
+    }
+
+    /**
+     * Computes a page of the differences of an id, or streams them.
+     */
+    private Response page(Integer id, int offset, Integer limit, boolean stream, boolean decoded, boolean binary) {
+        if (Logger.isDebugEnabled()) {
+            Logger.debug("Request on result page", this.getClass(), "id", id, "offset", offset, "limit", limit, "stream", stream,
+                    "decoded", decoded, "binary", binary);
+        }
+
+        if (offset < 0 || (limit != null && limit <= 0)) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("Invalid page for id=[" + id + "]").build();
+        }
+        InputPair pair = RepositoryFactory.getInstance().getInputPair(id);
+        if (pair == null || pair.getLeft() == null || pair.getRight() == null) {
+            return Response.status(Response.Status.NOT_FOUND).entity("Result not found for id=[" + id + "]").build();
+        }
+        if (decoded) {
+            try {
+                pair = pair.decoded();
+            } catch (IllegalArgumentException e) {
+                return notBase64(id);
+            }
+        }
+
+        Comparator comparator = new Comparator();
+        Output output = new Output(id);
+        output.setResult(comparator.classify(pair.getLeft(), pair.getRight()));
+        if (output.getResult() != Result.DIFFERENT) {
+            return Response.ok(binary ? binary(output, Collections.<Diff>emptyIterator(), 0) : output).build();
+        }
+        Iterator<Diff> diffs = comparator.iterateDiff(pair.getLeft(), pair.getRight(), offset);
+        int pageLimit = limit == null ? DEFAULT_PAGE_LIMIT : limit;
+        if (binary) {
+            return Response.ok(binary(output, diffs, stream && limit == null ? Long.MAX_VALUE : pageLimit)).build();
+        }
+        if (stream) {
+            return Response.ok(new DiffStream(output, diffs, limit == null ? Long.MAX_VALUE : limit)).build();
+        }
+
+        DiffRuns diffList = new DiffRuns();
+        while (diffList.size() < pageLimit && diffs.hasNext()) {
+            diffList.add(diffs.next());
+        }
+        output.setDiffList(diffList);
+        if (diffs.hasNext()) {
+            output.setNext(diffs.next().getOffset());
+        }
+        return Response.ok(output).build();
+    }
+
+    /**
+     * Batch result endpoint. It compares the ids in parallel and streams a
+     * JSON array with their results in the order they complete. Ids without
+     * both sides come with no result.
+     *
+     * @param size Size of the body in bytes, if informed.
+     * @param body JSON array of operation ids, e.g. <code>[1,2,3]</code>
+     * @return HTTP Response: 200 - OK with the results. 
+     * 400 - Bad Request if the list is missing or has a null id, or if the
+     * ids are routed among nodes. 413 - Payload Too Large if the body is 
+     * larger than {@code JSONDIFF_MAX_POST_SIZE}.
+     */
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("/batch")
+    public Response batch(@DefaultValue("-1") @HeaderParam(HttpHeaders.CONTENT_LENGTH) long size, InputStream body) {
+        if (Logger.isDebugEnabled()) {
+            Logger.debug("Request on batch", this.getClass(), "size", size);
+        }
+
+        List<Integer> ids;
+        try {
+            ids = readBatch(IDS, body, size);
+        } catch (TooLargeException e) {
+            return batchTooLarge();
+        } catch (IOException e) {
+            if (Logger.isDebugEnabled()) {
+                Logger.debug("Invalid batch", this.getClass(), e);
+            }
+            ids = null;
+        }
+        if (ids == null || ids.contains(null)) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("Invalid batch").build();
+        }
+        return Response.ok(new BatchStream(ids)).build();
+    }
+
+    /**
+     * Batch left endpoint. It stores the left side of many ids at once.
+     *
+     * @param size Size of the body in bytes, if informed.
+     * @param body JSON array of inputs, e.g. 
+     * <code>[{"id":1,"value":"YWMvZGM="}]</code>
+     * @return HTTP Response: 201 - Created for success. 
+     * 400 - Bad Request if some input is not valid, in which case none is 
+     * stored, or if the ids are routed among nodes. 413 - Payload Too Large
+     * if the body is larger than {@code JSONDIFF_MAX_POST_SIZE}.
+     */
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Path("/batch/left")
+    public Response leftBatch(@DefaultValue("-1") @HeaderParam(HttpHeaders.CONTENT_LENGTH) long size, InputStream body) {
+        if (Logger.isDebugEnabled()) {
+            Logger.debug("Request on batch left", this.getClass(), "size", size);
+        }
+        return storeAll(body, size, true);
+    }
+
+    /**
+     * Batch right endpoint. It stores the right side of many ids at once.
+     *
+     * @param size Size of the body in bytes, if informed.
+     * @param body JSON array of inputs, e.g. 
+     * <code>[{"id":1,"value":"YWMvZGM="}]</code>
+     * @return HTTP Response: 201 - Created for success. 
+     * 400 - Bad Request if some input is not valid, in which case none is 
+     * stored, or if the ids are routed among nodes. 413 - Payload Too Large
+     * if the body is larger than {@code JSONDIFF_MAX_POST_SIZE}.
+     */
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Path("/batch/right")
+    public Response rightBatch(@DefaultValue("-1") @HeaderParam(HttpHeaders.CONTENT_LENGTH) long size, InputStream body) {
+        if (Logger.isDebugEnabled()) {
+            Logger.debug("Request on batch right", this.getClass(), "size", size);
+        }
+        return storeAll(body, size, false);
+    }
+
+    private static StreamingOutput binary(Output output, Iterator<Diff> diffs, long limit) {
+        return stream -> BinaryResult.write(output, diffs, limit, stream);
+    }
+
+    /**
+     * Stores one side of many ids, once all of them are known to be valid.
+     */
+    private Response storeAll(InputStream body, long size, boolean left) {
+        List<Input> inputs;
+        try {
+            inputs = readBatch(INPUTS, body, size);
+        } catch (TooLargeException e) {
+            return batchTooLarge();
+        } catch (IOException e) {
+            if (Logger.isDebugEnabled()) {
+                Logger.debug("Invalid batch", this.getClass(), e);
+            }
+            inputs = null;
+        }
+        if (inputs == null) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("Invalid batch").build();
+        }
+        Payload[] payloads = new Payload[inputs.size()];
+        for (int i = 0; i < payloads.length; i++) {
+            Input input = inputs.get(i);
+            if (input == null || input.getId() == null || input.getValue() == null) {
+                return Response.status(Response.Status.BAD_REQUEST).entity("Invalid input at index [" + i + "]").build();
+            }
+            try {
+                payloads[i] = Payload.of(input.getValue());
+            } catch (IllegalArgumentException e) {
+                return Response.status(Response.Status.BAD_REQUEST).entity("Invalid input for id=[" + input.getId() + "]: " + e.getMessage()).build();
+            }
+        }
+        for (int i = 0; i < payloads.length; i++) {
+            save(inputs.get(i).getId(), left, payloads[i]);
+        }
+        return Response.status(Response.Status.CREATED).build();
+    }
+
+    /**
+     * Reads and stores one side of an id.
+     */
+    private Response store(Integer id, boolean left, InputStream body, long size, BodyReader reader) {
+        long maxSize = ServerSettings.getInstance().getMaxPostSize();
+        if (maxSize >= 0 && size > maxSize) {
+            return tooLarge(id, maxSize);
+        }
+        Payload payload;
+        try {
+            payload = reader.read(maxSize >= 0 ? new LimitedInputStream(body, maxSize) : body, size);
+        } catch (TooLargeException e) {
+            return tooLarge(id, maxSize);
+        } catch (IllegalArgumentException | IOException e) {
+            if (Logger.isDebugEnabled()) {
+                Logger.debug("Invalid input", this.getClass(), e, "id", id);
+            }
+            return Response.status(Response.Status.BAD_REQUEST).entity("Invalid input for id=[" + id + "]: " + e.getMessage()).build();
+        }
+        save(id, left, payload);
+        return Response.status(Response.Status.CREATED).build();
+    }
+
+    private void save(Integer id, boolean left, Payload payload) {
+        if (left) {
+            RepositoryFactory.getInstance().insertLeftPayload(id, payload);
+            LEFT_BYTES.record(payload.length());
+        } else {
+            RepositoryFactory.getInstance().insertRightPayload(id, payload);
+            RIGHT_BYTES.record(payload.length());
+        }
+        ResultCache.getInstance().invalidate(id);
+        DiffScheduler.getInstance().schedule(id);
+    }
+
+    /**
+     * Reads a batch body within {@code JSONDIFF_MAX_POST_SIZE}, like the 
+     * bodies of a single id.
+     *
+     * @return The list, or null for an empty body.
+     * @throws TooLargeException if the body is larger than the limit.
+     */
+    private static <T> List<T> readBatch(ObjectReader reader, InputStream body, long size) throws IOException {
+        long maxSize = ServerSettings.getInstance().getMaxPostSize();
+        if (maxSize >= 0 && size > maxSize) {
+            throw new TooLargeException();
+        }
+        if (size == 0) {
+            return null;
+        }
+        return reader.readValue(maxSize >= 0 ? new LimitedInputStream(body, maxSize) : body);
+    }
+
+    private static Response batchTooLarge() {
+        return Response.status(Response.Status.REQUEST_ENTITY_TOO_LARGE)
+                .entity("Batch is larger than " + ServerSettings.getInstance().getMaxPostSize() + " bytes").build();
+    }
+
+    private static Response tooLarge(Integer id, long maxSize) {
+        return Response.status(Response.Status.REQUEST_ENTITY_TOO_LARGE)
+                .entity("Input for id=[" + id + "] is larger than " + maxSize + " bytes").build();
+    }
+
+    private interface BodyReader {
+
+        Payload read(InputStream body, long size) throws IOException;
+    }
+
+    /**
+     * Fails once more than a number of bytes are read, so bodies without a
+     * length are limited too.
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        private LimitedInputStream(InputStream in, long maxSize) {
+            super(in);
+            this.remaining = maxSize;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0 && --remaining < 0) {
+                throw new TooLargeException();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0 && (remaining -= n) < 0) {
+                throw new TooLargeException();
+            }
+            return n;
+        }
+    }
+
+    private static class TooLargeException extends IOException {
+    }
 }
@@ -0,0 +1,182 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.ws;
+
+import dutramb.jsondiff.cluster.Router;
+import dutramb.jsondiff.log.Logger;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import javax.inject.Provider;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.client.AsyncInvoker;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.InvocationCallback;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Variant;
+import org.glassfish.grizzly.http.server.Request;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.RequestEntityProcessing;
+
+/**
+ * Proxies the requests the {@code RoutingFilter} sends to the node owning 
+ * their id. The request is suspended and sent with the asynchronous client,
+ * so a slow or dead owner holds a client thread, not an HTTP worker; the 
+ * response is resumed with the owner's status, headers and body, streamed.
+ * <p>
+ * End-to-end headers are copied both ways, hop-by-hop ones are not. A body 
+ * the server already decoded (e.g. {@code Content-Encoding: gzip}) is sent 
+ * decoded, without its {@code Content-Encoding}. A response compressed by
+ * the owner keeps its {@code Content-Encoding} and is not compressed again.
+ *
+ * @author Marcio Branquinho Dutra
+ */
+@Path(ForwardWS.PATH)
+public class ForwardWS {
+
+    public static final String PATH = "/forward";
+    /**
+     * Request property with the URI the request is sent to.
+     */
+    static final String TARGET = ForwardWS.class.getName() + ".target";
+
+    private static final Set<String> HOP_BY_HOP = new HashSet<>(Arrays.asList("connection", "keep-alive",
+            "proxy-authenticate", "proxy-authorization", "te", "trailer", "trailers", "transfer-encoding", "upgrade"));
+    /**
+     * Request headers set by the client for the request it sends.
+     */
+    private static final Set<String> NOT_FORWARDED = new HashSet<>(Arrays.asList("host", "content-length",
+            "content-type", "content-encoding", "content-language", "expect", 
+            RoutingFilter.FORWARDED_HEADER.toLowerCase(Locale.ROOT)));
+
+    private final Router router;
+    private final Client client;
+
+    @Context
+    private Provider<Request> connection;
+
+    public ForwardWS(Router router) {
+        this.router = router;
+        this.client = ClientBuilder.newClient()
+                .property(ClientProperties.CONNECT_TIMEOUT, RoutingFilter.FORWARD_TIMEOUT)
+                .property(ClientProperties.READ_TIMEOUT, RoutingFilter.FORWARD_TIMEOUT)
+                .property(ClientProperties.FOLLOW_REDIRECTS, false)
+                .property(ClientProperties.REQUEST_ENTITY_PROCESSING, RequestEntityProcessing.CHUNKED);
+    }
+
+    @GET
+    public void get(@Context ContainerRequestContext request, @Suspended AsyncResponse response) {
+        forward(request, response);
+    }
+
+    @POST
+    public void post(@Context ContainerRequestContext request, @Suspended AsyncResponse response) {
+        forward(request, response);
+    }
+
+    @DELETE
+    public void delete(@Context ContainerRequestContext request, @Suspended AsyncResponse response) {
+        forward(request, response);
+    }
+
+    private void forward(ContainerRequestContext request, AsyncResponse response) {
+        URI target = (URI) request.getProperty(TARGET);
+        if (target == null) {
+            response.resume(Response.status(Response.Status.NOT_FOUND).build());
+            return;
+        }
+        boolean decoded = connection != null && !connection.get().getRequest().getContentEncodings().isEmpty();
+        Invocation.Builder builder = client.target(target).request();
+        for (Map.Entry<String, List<String>> header : request.getHeaders().entrySet()) {
+            String name = header.getKey().toLowerCase(Locale.ROOT);
+            if (HOP_BY_HOP.contains(name) || NOT_FORWARDED.contains(name)) {
+                continue;
+            }
+            for (String value : header.getValue()) {
+                builder.header(header.getKey(), value);
+            }
+        }
+        builder.header(RoutingFilter.FORWARDED_HEADER, router.getSelf().toString());
+
+        InvocationCallback<Response> callback = new InvocationCallback<Response>() {
+            @Override
+            public void completed(Response answer) {
+                response.resume(copy(answer));
+            }
+
+            @Override
+            public void failed(Throwable error) {
+                Logger.warn("Forward failed", ForwardWS.class, error, "target", target);
+                response.resume(Response.status(Response.Status.BAD_GATEWAY).entity("Node not available: " + target).build());
+            }
+        };
+        AsyncInvoker invoker = builder.async();
+        if (request.hasEntity()) {
+            // the entity variant sets the content headers of the request
+            String encoding = decoded ? null : request.getHeaderString(HttpHeaders.CONTENT_ENCODING);
+            Variant variant = new Variant(request.getMediaType(), request.getLanguage(), encoding);
+            invoker.method(request.getMethod(), Entity.entity(request.getEntityStream(), variant), callback);
+        } else {
+            invoker.method(request.getMethod(), callback);
+        }
+    }
+
+    /**
+     * Builds the response to the client from the owner's one, streaming its 
+     * body.
+     */
+    private static Response copy(Response answer) {
+        Response.ResponseBuilder forwarded = Response.status(answer.getStatus());
+        for (Map.Entry<String, List<String>> header : answer.getStringHeaders().entrySet()) {
+            if (header.getKey() == null || HOP_BY_HOP.contains(header.getKey().toLowerCase(Locale.ROOT))) {
+                continue;
+            }
+            for (String value : header.getValue()) {
+                forwarded.header(header.getKey(), value);
+            }
+        }
+        if (answer.hasEntity()) {
+            forwarded.entity(answer.readEntity(InputStream.class));
+        } else {
+            answer.close();
+        }
+        return forwarded.build();
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.ws;
+
+import dutramb.jsondiff.metrics.Histogram;
+import dutramb.jsondiff.metrics.Metrics;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.glassfish.grizzly.Connection;
+import org.glassfish.grizzly.Grizzly;
+import org.glassfish.grizzly.attributes.Attribute;
+import org.glassfish.grizzly.http.server.Request;
+import org.glassfish.grizzly.utils.NullaryFunction;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Records the latency of each endpoint, from the request to the response 
+ * being ready, labelled by the name of its resource method. Suspended 
+ * requests are measured until they are resumed; the time to write a 
+ * streamed body is not included.
+ * <p>
+ * Recording allocates nothing: the start time is kept in a holder of the 
+ * connection, reused by all of its requests, since a connection handles 
+ * one request at a time.
+ *
+ * @author Marcio Branquinho Dutra
+ */
+@Provider
+public class MetricsFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    private static final Attribute<long[]> START = Grizzly.DEFAULT_ATTRIBUTE_BUILDER.createAttribute(
+            MetricsFilter.class.getName() + ".start", (NullaryFunction<long[]>) () -> new long[1]);
+    private static final ConcurrentMap<Method, Histogram> LATENCIES = new ConcurrentHashMap<>();
+
+    @Context
+    private ResourceInfo resourceInfo;
+
+    @Context
+    private javax.inject.Provider<Request> connection;
+
+    @Override
+    public void filter(ContainerRequestContext request) {
+        long[] start = start();
+        if (start != null) {
+            start[0] = System.nanoTime();
+        }
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request, ContainerResponseContext response) {
+        long[] start = start();
+        Method method = resourceInfo.getResourceMethod();
+        if (start != null && start[0] != 0 && method != null) {
+            LATENCIES.computeIfAbsent(method, m -> Metrics.getInstance().histogram("jsondiff_http_request_seconds",
+                    "Time to handle a request, by endpoint.", 1e-9, "endpoint", m.getName()))
+                    .recordSince(start[0]);
+            start[0] = 0;
+        }
+    }
+
+    /**
+     * @return The start holder of the connection of the request, or null
+     * out of Grizzly.
+     */
+    private long[] start() {
+        Request request = connection == null ? null : connection.get();
+        Connection<?> channel = request == null ? null : request.getContext().getConnection();
+        return channel == null ? null : START.get(channel);
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.ws;
+
+import dutramb.jsondiff.logic.ResultCache;
+import dutramb.jsondiff.metrics.Metrics;
+import dutramb.jsondiff.repository.RepositoryFactory;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * The {@code MetricsWS} provides the metrics at '/metrics', in the 
+ * Prometheus text format.
+ *
+ * @author Marcio Branquinho Dutra
+ */
+@Path("/metrics")
+public class MetricsWS {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    static {
+        Metrics metrics = Metrics.getInstance();
+        metrics.gauge("jsondiff_repository_entries", "Ids stored.", () -> RepositoryFactory.getInstance().getSize());
+        metrics.gauge("jsondiff_repository_bytes", "Bytes of the payloads stored.", () -> RepositoryFactory.getInstance().getBytes());
+        metrics.counter("jsondiff_result_cache_hits_total", "Results read from the cache.", () -> ResultCache.getInstance().getHits());
+        metrics.counter("jsondiff_result_cache_misses_total", "Results not found in the cache.", () -> ResultCache.getInstance().getMisses());
+        metrics.counter("jsondiff_result_cache_evictions_total", "Results evicted from the cache.", () -> ResultCache.getInstance().getEvictions());
+        metrics.gauge("jsondiff_result_cache_entries", "Results in the cache.", () -> ResultCache.getInstance().getSize());
+        metrics.gauge("jsondiff_result_cache_bytes", "Estimated memory held by the cache.", () -> ResultCache.getInstance().getBytes());
+    }
+
+    /**
+     * Metrics endpoint.
+     *
+     * @return HTTP Response: 200 - OK with all metrics.
+     */
+    @GET
+    @Produces(CONTENT_TYPE)
+    public Response metrics() {
+        StreamingOutput body = stream -> {
+            Writer writer = new OutputStreamWriter(stream, StandardCharsets.UTF_8);
+            Metrics.getInstance().write(writer);
+        };
+        return Response.ok(body).build();
+    }
+}
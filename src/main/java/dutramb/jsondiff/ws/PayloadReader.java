@@ -0,0 +1,428 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.ws;
+
+import dutramb.jsondiff.model.Payload;
+import dutramb.jsondiff.model.PayloadBuilder;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Reads request bodies straight into a {@code Payload}, without holding the
+ * whole body or the value as a {@code String}. Memory used besides the
+ * payload itself is a few small buffers, whatever the size of the body.
+ * <p>
+ * Two kinds of body are accepted:
+ * <ul>
+ * <li>JSON: an object with the base64 {@code value}, e.g.
+ * <code>{"value":"YWMvZGM="}</code>. Other members are skipped, but must
+ * be valid JSON, and only whitespace may follow the object.</li>
+ * <li>Binary: the raw data, which is encoded to base64 while it is read, so
+ * it is stored and compared exactly as its JSON form.</li>
+ * </ul>
+ * The size the client informs is only a hint: the payload starts with at 
+ * most 1 MB and grows as the bytes arrive, up to the size informed first, so
+ * no copy is made when the hint is right.
+ *
+ * @author Marcio Branquinho Dutra
+ */
+public class PayloadReader {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_NAME_LENGTH = 64;
+    private static final int MAX_DEPTH = 256;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MAX_INITIAL_CAPACITY = 1024 * 1024;
+
+    private PayloadReader() {
+    }
+
+    /**
+     * Reads the {@code value} member of a JSON object.
+     *
+     * @param body UTF-8 JSON body.
+     * @param size Size of the body in bytes, or -1 if unknown. Used just to
+     * size the payload.
+     * @return
+     * @throws IOException
+     * @throws IllegalArgumentException if the body is not a JSON object with a 
+     * base64 string {@code value}.
+     */
+    public static Payload readJson(InputStream body, long size) throws IOException {
+        Source source = new Source(new InputStreamReader(body, StandardCharsets.UTF_8));
+        Payload payload = null;
+
+        expect(source, '{');
+        int c = skipWhitespace(source);
+        if (c != '}') {
+            while (true) {
+                if (c != '"') {
+                    throw invalid("member name expected");
+                }
+                String name = readName(source);
+                expect(source, ':');
+                c = skipWhitespace(source);
+                if ("value".equals(name) && c == '"') {
+                    // the value usually ends the body, followed by '"}'
+                    payload = readString(source, builder(size < 0 ? -1 : size - source.offset() - 2));
+                } else if ("value".equals(name) && c != 'n') {
+                    throw invalid("value must be a string");
+                } else {
+                    skipValue(source, c);
+                }
+                c = skipWhitespace(source);
+                if (c == '}') {
+                    break;
+                }
+                if (c != ',') {
+                    throw invalid("',' or '}' expected");
+                }
+                c = skipWhitespace(source);
+            }
+        }
+        while ((c = source.peek()) != -1) {
+            if (!Character.isWhitespace(c)) {
+                throw invalid("unexpected content after the object");
+            }
+            source.position++;
+        }
+        if (payload == null) {
+            throw invalid("value is required");
+        }
+        return payload;
+    }
+
+    /**
+     * Reads raw data, encoding it to base64.
+     *
+     * @param body Binary body.
+     * @param size Size of the body in bytes, or -1 if unknown. Used just to
+     * size the payload.
+     * @return
+     * @throws IOException
+     */
+    public static Payload readBinary(InputStream body, long size) throws IOException {
+        PayloadBuilder builder = builder(size < 0 ? -1 : (size + 2) / 3 * 4);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (OutputStream encoder = Base64.getEncoder().wrap(builder)) {
+            int read;
+            while ((read = body.read(buffer)) != -1) {
+                encoder.write(buffer, 0, read);
+            }
+        }
+        return builder.toPayload();
+    }
+
+    /**
+     * @param expected Expected number of characters, or -1 if unknown.
+     */
+    private static PayloadBuilder builder(long expected) {
+        if (expected < 0) {
+            return new PayloadBuilder(INITIAL_CAPACITY);
+        }
+        int hint = (int) Math.min(expected, Integer.MAX_VALUE - 8);
+        return new PayloadBuilder(Math.min(hint, MAX_INITIAL_CAPACITY), hint);
+    }
+
+    /**
+     * Reads the rest of a string, copying the runs of characters with no 
+     * escape straight from the buffer.
+     */
+    private static Payload readString(Source source, PayloadBuilder builder) throws IOException {
+        while (true) {
+            if (source.position == source.limit && !source.fill()) {
+                throw invalid("unexpected end of body");
+            }
+            char[] chars = source.buffer;
+            int end = source.position;
+            while (end < source.limit && chars[end] != '"' && chars[end] != '\\') {
+                end++;
+            }
+            builder.append(chars, source.position, end - source.position);
+            source.position = end;
+            if (end < source.limit) {
+                source.position++;
+                if (chars[end] == '"') {
+                    return builder.toPayload();
+                }
+                builder.append(readEscape(source));
+            }
+        }
+    }
+
+    private static String readName(Source source) throws IOException {
+        StringBuilder name = new StringBuilder();
+        int c;
+        while ((c = source.next()) != '"') {
+            char value = c == '\\' ? readEscape(source) : (char) c;
+            if (name.length() <= MAX_NAME_LENGTH) {
+                name.append(value);
+            }
+        }
+        return name.toString();
+    }
+
+    private static char readEscape(Source source) throws IOException {
+        int c = source.next();
+        switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+                return (char) c;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(source.next(), 16);
+                    if (digit < 0) {
+                        throw invalid("invalid unicode escape");
+                    }
+                    value = value * 16 + digit;
+                }
+                return (char) value;
+            default:
+                throw invalid("invalid escape");
+        }
+    }
+
+    /**
+     * Skips a JSON value whose first character was already read, checking 
+     * that it is well formed.
+     */
+    private static void skipValue(Source source, int c) throws IOException {
+        skipValue(source, c, 0);
+    }
+
+    private static void skipValue(Source source, int c, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw invalid("value nested too deep");
+        }
+        switch (c) {
+            case '"':
+                skipString(source);
+                return;
+            case '{':
+                c = skipWhitespace(source);
+                if (c == '}') {
+                    return;
+                }
+                while (true) {
+                    if (c != '"') {
+                        throw invalid("member name expected");
+                    }
+                    skipString(source);
+                    expect(source, ':');
+                    skipValue(source, skipWhitespace(source), depth + 1);
+                    c = skipWhitespace(source);
+                    if (c == '}') {
+                        return;
+                    }
+                    if (c != ',') {
+                        throw invalid("',' or '}' expected");
+                    }
+                    c = skipWhitespace(source);
+                }
+            case '[':
+                c = skipWhitespace(source);
+                if (c == ']') {
+                    return;
+                }
+                while (true) {
+                    skipValue(source, c, depth + 1);
+                    c = skipWhitespace(source);
+                    if (c == ']') {
+                        return;
+                    }
+                    if (c != ',') {
+                        throw invalid("',' or ']' expected");
+                    }
+                    c = skipWhitespace(source);
+                }
+            case 't':
+                skipLiteral(source, "rue");
+                return;
+            case 'f':
+                skipLiteral(source, "alse");
+                return;
+            case 'n':
+                skipLiteral(source, "ull");
+                return;
+            default:
+                skipNumber(source, c);
+        }
+    }
+
+    private static void skipString(Source source) throws IOException {
+        int c;
+        while ((c = source.next()) != '"') {
+            if (c == '\\') {
+                readEscape(source);
+            }
+        }
+    }
+
+    /**
+     * Skips the rest of true, false or null.
+     */
+    private static void skipLiteral(Source source, String rest) throws IOException {
+        for (int i = 0; i < rest.length(); i++) {
+            if (source.next() != rest.charAt(i)) {
+                throw invalid("value expected");
+            }
+        }
+    }
+
+    /**
+     * Skips the rest of a number, as in {@code -?(0|[1-9][0-9]*)(.[0-9]+)?([eE][+-]?[0-9]+)?}.
+     */
+    private static void skipNumber(Source source, int c) throws IOException {
+        if (c == '-') {
+            c = source.next();
+        }
+        if (!isDigit(c)) {
+            throw invalid("value expected");
+        }
+        if (c != '0') {
+            skipDigits(source);
+        }
+        if (source.peek() == '.') {
+            source.position++;
+            if (!isDigit(source.next())) {
+                throw invalid("digit expected");
+            }
+            skipDigits(source);
+        }
+        c = source.peek();
+        if (c == 'e' || c == 'E') {
+            source.position++;
+            c = source.next();
+            if (c == '+' || c == '-') {
+                c = source.next();
+            }
+            if (!isDigit(c)) {
+                throw invalid("digit expected");
+            }
+            skipDigits(source);
+        }
+    }
+
+    private static void skipDigits(Source source) throws IOException {
+        while (isDigit(source.peek())) {
+            source.position++;
+        }
+    }
+
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static void expect(Source source, char expected) throws IOException {
+        if (skipWhitespace(source) != expected) {
+            throw invalid("'" + expected + "' expected");
+        }
+    }
+
+    private static int skipWhitespace(Source source) throws IOException {
+        int c;
+        while (Character.isWhitespace(c = source.next())) {
+        }
+        return c;
+    }
+
+    private static IllegalArgumentException invalid(String message) {
+        return new IllegalArgumentException("Invalid JSON input: " + message);
+    }
+
+    /**
+     * Reads the characters of the body in chunks, so the scanning loops read
+     * an array instead of calling the reader for each character.
+     */
+    private static final class Source {
+
+        private final Reader reader;
+        private final char[] buffer = new char[BUFFER_SIZE];
+        private int position;
+        private int limit;
+        /**
+         * Characters read before the ones in the buffer.
+         */
+        private long read;
+
+        private Source(Reader reader) {
+            this.reader = reader;
+        }
+
+        private int next() throws IOException {
+            if (position == limit && !fill()) {
+                throw invalid("unexpected end of body");
+            }
+            return buffer[position++];
+        }
+
+        /**
+         * @return The next character, not consumed, or -1 at the end.
+         */
+        private int peek() throws IOException {
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            return buffer[position];
+        }
+
+        /**
+         * @return The number of characters consumed.
+         */
+        private long offset() {
+            return read + position;
+        }
+
+        private boolean fill() throws IOException {
+            read += limit;
+            position = 0;
+            limit = 0;
+            int count;
+            while ((count = reader.read(buffer)) == 0) {
+            }
+            if (count < 0) {
+                return false;
+            }
+            limit = count;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) [2017] [Marcio Branquinho Dutra]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dutramb.jsondiff.ws;
+
+import dutramb.jsondiff.cluster.Router;
+import dutramb.jsondiff.config.Settings;
+import dutramb.jsondiff.log.Logger;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.inject.Provider;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.PreMatching;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Response;
+import org.glassfish.grizzly.http.server.Request;
+
+/**
+ * Sends the requests of an id to the node owning it, as told by a 
+ * {@code Router}. With {@code JSONDIFF_ROUTING=forward} (default) the 
+ * request is handed to {@code ForwardWS}, which proxies it without holding
+ * the HTTP worker, and the client gets the owner's response; with 
+ * {@code redirect} the client gets a 307 to the owner.
+ * <p>
+ * Only the requests of a single id are routed: left, right, result and 
+ * delete. Batch requests are rejected with 400, since their ids may belong
+ * to other nodes. Requests already forwarded by a node are handled locally,
+ * so nodes with different node lists can't loop; the forwarded header is 
+ * only trusted from the addresses of the nodes, and removed from other 
+ * requests. Every response tells the node that handled it in the 
+ * {@code X-JsonDiff-Node} header.
+ *
+ * @author Marcio Branquinho Dutra
+ */
+@PreMatching
+public class RoutingFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    public static final String NODE_HEADER = "X-JsonDiff-Node";
+    public static final String FORWARDED_HEADER = "X-JsonDiff-Forwarded";
+    public static final int FORWARD_TIMEOUT = Settings.getInt("JSONDIFF_FORWARD_TIMEOUT_MS", 30000);
+
+    private static final Pattern ID_PATH = Pattern.compile("^/?(v1/diff/(-?\\d+)(/left|/right)?/?)$");
+    private static final Pattern BATCH_PATH = Pattern.compile("^/?v1/diff/batch(/left|/right)?/?$");
+
+    private final Router router;
+    private final boolean redirect;
+    private final Set<InetAddress> peers;
+
+    @Context
+    private Provider<Request> connection;
+
+    /**
+     * @param router
+     * @param redirect true to answer 307 instead of forwarding.
+     */
+    public RoutingFilter(Router router, boolean redirect) {
+        this.router = router;
+        this.redirect = redirect;
+        this.peers = resolve(router.getNodes());
+    }
+
+    public RoutingFilter(Router router) {
+        this(router, "redirect".equalsIgnoreCase(Settings.get("JSONDIFF_ROUTING").orElse("forward")));
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request) {
+        if (BATCH_PATH.matcher(request.getUriInfo().getPath()).matches()) {
+            request.abortWith(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Batches are not routed among nodes, send each id to its own endpoints").build());
+            return;
+        }
+        if (request.getHeaderString(FORWARDED_HEADER) != null) {
+            if (isPeer()) {
+                return;
+            }
+            request.getHeaders().remove(FORWARDED_HEADER);
+        }
+        Matcher matcher = ID_PATH.matcher(request.getUriInfo().getPath());
+        if (!matcher.matches()) {
+            return;
+        }
+        URI owner;
+        try {
+            owner = router.route(Integer.parseInt(matcher.group(2)));
+        } catch (NumberFormatException e) {
+            return;
+        }
+        if (owner == null) {
+            return;
+        }
+        String query = request.getUriInfo().getRequestUri().getRawQuery();
+        URI target = owner.resolve(matcher.group(1) + (query == null ? "" : "?" + query));
+        if (Logger.isDebugEnabled()) {
+            Logger.debug("Routing request", this.getClass(), "path", matcher.group(1), "owner", owner, "redirect", redirect);
+        }
+        if (redirect) {
+            request.abortWith(Response.temporaryRedirect(target).build());
+        } else {
+            request.setProperty(ForwardWS.TARGET, target);
+            request.setRequestUri(request.getUriInfo().getBaseUri().resolve(ForwardWS.PATH.substring(1)));
+        }
+    }
+
+    /**
+     * Adds the node header to responses made here, forwarded ones keep the
+     * owner's.
+     */
+    @Override
+    public void filter(ContainerRequestContext request, ContainerResponseContext response) {
+        if (!response.getHeaders().containsKey(NODE_HEADER)) {
+            response.getHeaders().putSingle(NODE_HEADER, router.getSelf().toString());
+        }
+    }
+
+    /**
+     * @return true if the request comes from the address of a node.
+     */
+    private boolean isPeer() {
+        String address = connection == null ? null : connection.get().getRemoteAddr();
+        if (address == null) {
+            return false;
+        }
+        try {
+            return peers.contains(InetAddress.getByName(address));
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+
+    private static Set<InetAddress> resolve(List<URI> nodes) {
+        Set<InetAddress> addresses = new HashSet<>();
+        for (URI node : nodes) {
+            try {
+                addresses.addAll(Arrays.asList(InetAddress.getAllByName(node.getHost())));
+            } catch (UnknownHostException e) {
+                Logger.warn("Node address not resolved, its forwards are routed again", RoutingFilter.class, e, "node", node);
+            }
+        }
+        return addresses;
+    }
+}
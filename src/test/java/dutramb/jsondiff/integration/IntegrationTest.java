@@ -24,18 +24,37 @@
 package dutramb.jsondiff.integration;
 
 import dutramb.jsondiff.Main;
+import dutramb.jsondiff.cluster.RingRouter;
 import dutramb.jsondiff.model.Diff;
 import dutramb.jsondiff.model.Input;
 import dutramb.jsondiff.model.Output;
 import dutramb.jsondiff.model.type.Result;
+import dutramb.jsondiff.repository.RepositoryFactory;
+import dutramb.jsondiff.ws.BinaryResult;
+import dutramb.jsondiff.ws.RoutingFilter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.ws.rs.ProcessingException;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Variant;
 import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.jersey.client.ClientProperties;
 import org.junit.After;
 import static org.junit.Assert.*;
 import org.junit.Before;
@@ -162,4 +181,316 @@ public class IntegrationTest {
         assertArrayEquals("iffList is wrong", listDiffExpected, output.getDiffList().toArray());
         
     }
+
+    /**
+     * Tests that binary data sent to one side is compared as its base64 
+     * encoding sent as JSON to the other side.
+     */
+    @Test
+    public void testBinaryInputResult() {
+        Integer id = 2;
+
+        byte[] data = "ac/dc!!".getBytes(StandardCharsets.US_ASCII);
+        Response responseLeft = this.target.path("/v1/diff/" + id + "/left").request().post(Entity.entity(data, MediaType.APPLICATION_OCTET_STREAM));
+        assertEquals("Insert Left wrong return", Response.Status.CREATED.getStatusCode(), responseLeft.getStatus());
+
+        Response responseRight = this.target.path("/v1/diff/" + id + "/right").request().post(Entity.json(new Input(id, "YWMvZGMhIQ==")));
+        assertEquals("Insert Right wrong return", Response.Status.CREATED.getStatusCode(), responseRight.getStatus());
+
+        Response responseResult = this.target.path("/v1/diff/" + id.toString()).request().get();
+        Output output = (Output) responseResult.readEntity(Output.class);
+        assertEquals("Output wrong result type", Result.EQUAL, output.getResult());
+    }
+
+    /**
+     * Tests that differences are read in pages, following the cursor, and 
+     * streamed.
+     */
+    @Test
+    public void testPagedResult() {
+        Integer id = 10;
+
+        Response responseLeft = this.target.path("/v1/diff/" + id + "/left").request().post(Entity.json(new Input(id, "AAAAAAAA")));
+        assertEquals("Insert Left wrong return", Response.Status.CREATED.getStatusCode(), responseLeft.getStatus());
+
+        Response responseRight = this.target.path("/v1/diff/" + id + "/right").request().post(Entity.json(new Input(id, "ABABABAB")));
+        assertEquals("Insert Right wrong return", Response.Status.CREATED.getStatusCode(), responseRight.getStatus());
+
+        Output first = this.target.path("/v1/diff/" + id).queryParam("limit", 2).request().get(Output.class);
+        assertArrayEquals("Wrong first page", new Diff[]{new Diff(1, 1), new Diff(3, 1)}, first.getDiffList().toArray());
+        assertEquals("Wrong cursor", Integer.valueOf(5), first.getNext());
+
+        Output last = this.target.path("/v1/diff/" + id).queryParam("offset", first.getNext()).queryParam("limit", 2).request().get(Output.class);
+        assertArrayEquals("Wrong last page", new Diff[]{new Diff(5, 1), new Diff(7, 1)}, last.getDiffList().toArray());
+        assertNull("Last page shouldn't have a cursor", last.getNext());
+
+        Output streamed = this.target.path("/v1/diff/" + id).queryParam("stream", true).request().get(Output.class);
+        assertEquals("Output wrong result type", Result.DIFFERENT, streamed.getResult());
+        assertEquals("Wrong streamed diffList size", 4, streamed.getDiffList().size());
+
+        Response invalid = this.target.path("/v1/diff/" + id).queryParam("limit", 0).request().get();
+        assertEquals("Invalid page wrong return", Response.Status.BAD_REQUEST.getStatusCode(), invalid.getStatus());
+    }
+
+    /**
+     * Tests the compact binary result, plain and compressed.
+     */
+    @Test
+    public void testBinaryResult() throws IOException {
+        Integer id = 11;
+
+        this.target.path("/v1/diff/" + id + "/left").request().post(Entity.json(new Input(id, "AAAAAAAAAAAA")));
+        this.target.path("/v1/diff/" + id + "/right").request().post(Entity.json(new Input(id, "ABBAAAAAAAAB")));
+
+        Response responseResult = this.target.path("/v1/diff/" + id).request(MediaType.APPLICATION_OCTET_STREAM).get();
+        assertEquals("Result wrong return", Response.Status.OK.getStatusCode(), responseResult.getStatus());
+        Output output = BinaryResult.read(responseResult.readEntity(InputStream.class));
+        assertEquals("Output wrong id", id, output.getId());
+        assertEquals("Output wrong result type", Result.DIFFERENT, output.getResult());
+        assertArrayEquals("Wrong diffList", new Diff[]{new Diff(1, 2), new Diff(11, 1)}, output.getDiffList().toArray());
+
+        Response page = this.target.path("/v1/diff/" + id).queryParam("limit", 1)
+                .request(MediaType.APPLICATION_OCTET_STREAM).get();
+        output = BinaryResult.read(page.readEntity(InputStream.class));
+        assertArrayEquals("Wrong page", new Diff[]{new Diff(1, 2)}, output.getDiffList().toArray());
+        assertEquals("Wrong cursor", Integer.valueOf(11), output.getNext());
+    }
+
+    /**
+     * Tests that large responses are compressed for clients that accept it.
+     */
+    @Test
+    public void testCompressedResult() throws IOException {
+        Integer id = 15;
+
+        char[] left = new char[3000];
+        char[] right = new char[3000];
+        Arrays.fill(left, 'A');
+        for (int i = 0; i < right.length; i++) {
+            right[i] = i % 2 == 0 ? 'A' : 'B';
+        }
+        this.target.path("/v1/diff/" + id + "/left").request().post(Entity.json(new Input(id, new String(left))));
+        this.target.path("/v1/diff/" + id + "/right").request().post(Entity.json(new Input(id, new String(right))));
+
+        Response response = this.target.path("/v1/diff/" + id)
+                .request(MediaType.APPLICATION_OCTET_STREAM).acceptEncoding("gzip").get();
+        assertEquals("Wrong encoding", "gzip", response.getHeaderString(HttpHeaders.CONTENT_ENCODING));
+        Output output = BinaryResult.read(new GZIPInputStream(response.readEntity(InputStream.class)));
+        assertEquals("Wrong diffList size", 1500, output.getDiffList().size());
+        assertNull("Whole result shouldn't have a cursor", output.getNext());
+    }
+
+    /**
+     * Tests the batch upload and the batch result.
+     */
+    @Test
+    public void testBatch() {
+        List<Input> left = Arrays.asList(new Input(20, "YWMvZGM="), new Input(21, "YWMvZGM="), new Input(22, "YWMvZGM="));
+        List<Input> right = Arrays.asList(new Input(20, "YWMvZGM="), new Input(21, "YWMvZGE="));
+
+        Response responseLeft = this.target.path("/v1/diff/batch/left").request().post(Entity.json(left));
+        assertEquals("Insert Left wrong return", Response.Status.CREATED.getStatusCode(), responseLeft.getStatus());
+
+        Response responseRight = this.target.path("/v1/diff/batch/right").request().post(Entity.json(right));
+        assertEquals("Insert Right wrong return", Response.Status.CREATED.getStatusCode(), responseRight.getStatus());
+
+        List<Output> outputs = this.target.path("/v1/diff/batch").request()
+                .post(Entity.json(Arrays.asList(20, 21, 22)), new GenericType<List<Output>>() {});
+        assertEquals("Wrong number of results", 3, outputs.size());
+        Map<Integer, Output> byId = new HashMap<>();
+        for (Output output : outputs) {
+            byId.put(output.getId(), output);
+        }
+        assertEquals("Wrong result for 20", Result.EQUAL, byId.get(20).getResult());
+        assertEquals("Wrong result for 21", Result.DIFFERENT, byId.get(21).getResult());
+        assertArrayEquals("Wrong diffList for 21", new Diff[]{new Diff(6, 1)}, byId.get(21).getDiffList().toArray());
+        assertNull("Id without right side shouldn't have a result", byId.get(22).getResult());
+
+        Response invalid = this.target.path("/v1/diff/batch/left").request().post(Entity.json(Arrays.asList(new Input(23, null))));
+        assertEquals("Invalid batch wrong return", Response.Status.BAD_REQUEST.getStatusCode(), invalid.getStatus());
+    }
+
+    /**
+     * Tests that the metrics are exposed after a comparison.
+     */
+    @Test
+    public void testMetrics() {
+        this.target.path("/v1/diff/16/left").request().post(Entity.json(new Input(16, "YWMvZGM=")));
+        this.target.path("/v1/diff/16/right").request().post(Entity.json(new Input(16, "YWMvZGE=")));
+        this.target.path("/v1/diff/16").request().get(Output.class);
+
+        Response response = this.target.path("/metrics").request().get();
+        assertEquals("Metrics wrong return", Response.Status.OK.getStatusCode(), response.getStatus());
+        String metrics = response.readEntity(String.class);
+        assertTrue("Missing compare latency", metrics.contains("jsondiff_compare_seconds_count"));
+        assertTrue("Missing endpoint latency", metrics.contains("jsondiff_http_request_seconds{endpoint=\"result\""));
+        assertTrue("Missing repository size", metrics.contains("jsondiff_repository_entries "));
+        assertTrue("Missing cache hits", metrics.contains("# TYPE jsondiff_result_cache_hits_total counter"));
+    }
+
+    /**
+     * Tests that a deleted id has no result.
+     */
+    @Test
+    public void testDelete() {
+        this.target.path("/v1/diff/17/left").request().post(Entity.json(new Input(17, "YWMvZGM=")));
+        this.target.path("/v1/diff/17/right").request().post(Entity.json(new Input(17, "YWMvZGM=")));
+        assertEquals("Result wrong return", Response.Status.OK.getStatusCode(),
+                this.target.path("/v1/diff/17").request().get().getStatus());
+
+        assertEquals("Delete wrong return", Response.Status.NO_CONTENT.getStatusCode(),
+                this.target.path("/v1/diff/17").request().delete().getStatus());
+        assertEquals("Deleted result wrong return", Response.Status.NOT_FOUND.getStatusCode(),
+                this.target.path("/v1/diff/17").request().get().getStatus());
+        assertEquals("Second delete wrong return", Response.Status.NOT_FOUND.getStatusCode(),
+                this.target.path("/v1/diff/17").request().delete().getStatus());
+    }
+
+    /**
+     * Tests that decoded results report offsets in decoded bytes, and that
+     * inputs which are not base64 are rejected.
+     */
+    @Test
+    public void testDecodedResult() {
+        this.target.path("/v1/diff/18/left").request().post(Entity.json(new Input(18, "YWMvZGM=")));
+        this.target.path("/v1/diff/18/right").request().post(Entity.json(new Input(18, "YWMvZGE=")));
+        Output output = this.target.path("/v1/diff/18").queryParam("decoded", true).request().get(Output.class);
+        assertEquals("Wrong decoded result", Result.DIFFERENT, output.getResult());
+        assertArrayEquals("Wrong decoded diffList", new Diff[]{new Diff(4, 1)}, output.getDiffList().toArray());
+        Output page = this.target.path("/v1/diff/18").queryParam("decoded", true).queryParam("limit", 10).request().get(Output.class);
+        assertArrayEquals("Wrong decoded page", new Diff[]{new Diff(4, 1)}, page.getDiffList().toArray());
+        Output encoded = this.target.path("/v1/diff/18").request().get(Output.class);
+        assertArrayEquals("Wrong base64 diffList", new Diff[]{new Diff(6, 1)}, encoded.getDiffList().toArray());
+
+        this.target.path("/v1/diff/19/left").request().post(Entity.json(new Input(19, "not base64")));
+        this.target.path("/v1/diff/19/right").request().post(Entity.json(new Input(19, "YWMvZGE=")));
+        assertEquals("Invalid base64 wrong return", Response.Status.BAD_REQUEST.getStatusCode(),
+                this.target.path("/v1/diff/19").queryParam("decoded", true).request().get().getStatus());
+        assertEquals("Invalid base64 page wrong return", Response.Status.BAD_REQUEST.getStatusCode(),
+                this.target.path("/v1/diff/19").queryParam("decoded", true).queryParam("stream", true).request().get().getStatus());
+    }
+
+    /**
+     * Tests that two nodes send the requests of an id to its owner, 
+     * forwarding or redirecting them, and keep the ids apart. The second 
+     * node runs in another JVM, so it has its own repository.
+     */
+    @Test
+    public void testRouting() throws Exception {
+        String first = "http://127.0.0.2:8091/json-diff/";
+        String second = "http://127.0.0.3:8092/json-diff/";
+        List<String> nodes = Arrays.asList(first, second);
+        HttpServer firstServer = Main.startServer(first, false, new RingRouter(nodes, first));
+        Process secondNode = startNode("127.0.0.3", 8092, String.join(",", nodes));
+        HttpServer redirectServer = null;
+        try {
+            RingRouter router = new RingRouter(nodes, first);
+            int remote = 30;
+            while (router.route(remote) == null) {
+                remote++;
+            }
+            WebTarget node = ClientBuilder.newClient().target(first);
+            node.path("/v1/diff/" + remote + "/left").request().post(Entity.json(new Input(remote, "YWMvZGM=")));
+            node.path("/v1/diff/" + remote + "/right").request().post(Entity.json(new Input(remote, "YWMvZGE=")));
+            Response response = node.path("/v1/diff/" + remote).request(MediaType.APPLICATION_JSON).get();
+            assertEquals("Forwarded result wrong return", Response.Status.OK.getStatusCode(), response.getStatus());
+            assertEquals("Result should come from the owner", second, response.getHeaderString(RoutingFilter.NODE_HEADER));
+            assertArrayEquals("Wrong forwarded diffList", new Diff[]{new Diff(6, 1)}, 
+                    response.readEntity(Output.class).getDiffList().toArray());
+            assertNull("Remote id shouldn't be stored here", RepositoryFactory.getInstance().getInputPair(remote));
+            assertEquals("Owner should have the id", Response.Status.OK.getStatusCode(),
+                    ClientBuilder.newClient().target(second).path("/v1/diff/" + remote).request().get().getStatus());
+
+            assertTrue("Owner's length should be kept", response.getLength() > 0);
+
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write("{\"value\":\"YWMvZGM=\"}".getBytes(StandardCharsets.US_ASCII));
+            }
+            Response encoded = node.path("/v1/diff/" + remote + "/right").request()
+                    .post(Entity.entity(compressed.toByteArray(), new Variant(MediaType.APPLICATION_JSON_TYPE, (String) null, "gzip")));
+            assertEquals("Compressed forward wrong return", Response.Status.CREATED.getStatusCode(), encoded.getStatus());
+            assertEquals("Compressed body should be stored by the owner", Result.EQUAL,
+                    node.path("/v1/diff/" + remote).request(MediaType.APPLICATION_JSON).get(Output.class).getResult());
+
+            char[] large = new char[3000];
+            Arrays.fill(large, 'A');
+            node.path("/v1/diff/" + remote + "/left").request().post(Entity.json(new Input(remote, new String(large))));
+            for (int i = 1; i < large.length; i += 2) {
+                large[i] = 'B';
+            }
+            node.path("/v1/diff/" + remote + "/right").request().post(Entity.json(new Input(remote, new String(large))));
+            Response zipped = node.path("/v1/diff/" + remote).request(MediaType.APPLICATION_OCTET_STREAM).acceptEncoding("gzip").get();
+            assertEquals("Owner's encoding should be kept", "gzip", zipped.getHeaderString(HttpHeaders.CONTENT_ENCODING));
+            assertEquals("Wrong compressed forwarded diffList", large.length / 2,
+                    BinaryResult.read(new GZIPInputStream(zipped.readEntity(InputStream.class))).getDiffList().size());
+
+            Response spoofed = node.path("/v1/diff/" + remote).request(MediaType.APPLICATION_JSON)
+                    .header(RoutingFilter.FORWARDED_HEADER, "spoofed").get();
+            assertEquals("Forwarded header from a client should be ignored", second, spoofed.getHeaderString(RoutingFilter.NODE_HEADER));
+
+            int local = 30;
+            while (router.route(local) != null) {
+                local++;
+            }
+            Response localResponse = node.path("/v1/diff/" + local + "/left").request().post(Entity.json(new Input(local, "YWMvZGM=")));
+            assertEquals("Local id should stay", first, localResponse.getHeaderString(RoutingFilter.NODE_HEADER));
+            assertNotNull("Local id should be stored here", RepositoryFactory.getInstance().getInputPair(local));
+
+            Response batch = node.path("/v1/diff/batch/left").request().post(Entity.json(Arrays.asList(new Input(remote, "YWMvZGM="))));
+            assertEquals("Batch on a routed node wrong return", Response.Status.BAD_REQUEST.getStatusCode(), batch.getStatus());
+
+            System.setProperty("JSONDIFF_ROUTING", "redirect");
+            String third = "http://127.0.0.2:8093/json-diff/";
+            redirectServer = Main.startServer(third, false, new RingRouter(Arrays.asList(third, second), third));
+            int redirected = 30;
+            while (new RingRouter(Arrays.asList(third, second), third).route(redirected) == null) {
+                redirected++;
+            }
+            Response redirect = ClientBuilder.newClient().property(ClientProperties.FOLLOW_REDIRECTS, false)
+                    .target(third).path("/v1/diff/" + redirected).request().get();
+            assertEquals("Redirect wrong return", Response.Status.TEMPORARY_REDIRECT.getStatusCode(), redirect.getStatus());
+            assertEquals("Wrong redirect", second + "v1/diff/" + redirected, redirect.getHeaderString(HttpHeaders.LOCATION));
+        } finally {
+            System.clearProperty("JSONDIFF_ROUTING");
+            firstServer.shutdownNow();
+            secondNode.destroyForcibly().waitFor();
+            if (redirectServer != null) {
+                redirectServer.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Starts a node in a new JVM and waits until it answers.
+     */
+    private static Process startNode(String host, int port, String nodes) throws Exception {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                "-DJSONDIFF_HOSTNAME=" + host, "-DJSONDIFF_PORT=" + port, "-DJSONDIFF_NODES=" + nodes, Main.class.getName())
+                .redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+        WebTarget target = ClientBuilder.newClient().target("http://" + host + ":" + port + "/json-diff/");
+        long deadline = System.currentTimeMillis() + 30000;
+        while (true) {
+            try {
+                target.path("/v1/diff/0").request().get().close();
+                return process;
+            } catch (ProcessingException e) {
+                if (!process.isAlive() || System.currentTimeMillis() > deadline) {
+                    process.destroyForcibly();
+                    throw new IllegalStateException("Node not started at " + host + ":" + port, e);
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    /**
+     * Tests that an invalid JSON body is rejected.
+     */
+    @Test
+    public void testInvalidInput() {
+        Response response = this.target.path("/v1/diff/1/left").request().post(Entity.json("{\"value\": 12}"));
+        assertEquals("Invalid input wrong return", Response.Status.BAD_REQUEST.getStatusCode(), response.getStatus());
+    }
 }
@@ -23,12 +23,56 @@
  */
 package dutramb.jsondiff.unit;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dutramb.jsondiff.cluster.HashRing;
+import dutramb.jsondiff.config.Settings;
+import dutramb.jsondiff.log.Logger;
 import dutramb.jsondiff.logic.Comparator;
+import dutramb.jsondiff.logic.ComputePool;
+import dutramb.jsondiff.logic.DiffScheduler;
+import dutramb.jsondiff.logic.ParallelDiff;
+import dutramb.jsondiff.logic.ResultCache;
+import dutramb.jsondiff.metrics.Histogram;
+import dutramb.jsondiff.metrics.Metrics;
 import dutramb.jsondiff.model.Diff;
+import dutramb.jsondiff.model.DiffRuns;
 import dutramb.jsondiff.model.Input;
+import dutramb.jsondiff.model.InputPair;
+import dutramb.jsondiff.model.MerkleTree;
+import dutramb.jsondiff.model.Payload;
+import dutramb.jsondiff.model.XXHash64;
 import dutramb.jsondiff.model.Output;
 import dutramb.jsondiff.model.type.Result;
+import dutramb.jsondiff.repository.DurableRepository;
 import dutramb.jsondiff.repository.MapRepository;
+import dutramb.jsondiff.repository.MappedRepository;
+import dutramb.jsondiff.repository.PairIndex;
+import dutramb.jsondiff.repository.ShardedRepository;
+import dutramb.jsondiff.repository.WriteAheadLog;
+import dutramb.jsondiff.ws.PayloadReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -200,5 +244,783 @@ public class UnitTest {
         assertNotNull("Null diff list", output.getDiffList());
         assertArrayEquals("Wrong diff (offset+len)", expectedList, output.getDiffList().toArray());
     }
+
+    /**
+     * Tests that the word-at-a-time scan finds the same runs as a character
+     * by character scan on data with runs crossing word boundaries.
+     */
+    @Test
+    public void resultShouldMatchCharByCharScan() {
+        char[] left = new char[1000];
+        char[] right = new char[1000];
+        Arrays.fill(left, 'A');
+        Arrays.fill(right, 'A');
+        int[][] runs = {{0, 1}, {6, 4}, {15, 1}, {17, 30}, {64, 8}, {100, 1}, {102, 1}, {500, 300}, {998, 2}};
+        List<Diff> expected = new ArrayList<>();
+        for (int[] run : runs) {
+            for (int i = run[0]; i < run[0] + run[1]; i++) {
+                right[i] = (char) ('B' + i % 3);
+            }
+            expected.add(new Diff(run[0], run[1]));
+        }
+
+        List<Diff> diffList = new Comparator().processDiff(new Input(4, new String(left)), new Input(4, new String(right)));
+        assertArrayEquals("Wrong diff (offset+len)", expected.toArray(), diffList.toArray());
+    }
+
+    /**
+     * Tests that values with characters above U+00FF are still compared char
+     * by char instead of being rejected.
+     */
+    @Test
+    public void wideCharactersShouldBeCompared() {
+        Input left = new Input(4, "a\u20ACbcd\u00E9f");
+        Input right = new Input(4, "a\u20ADxcd\u00E9g");
+        Object[] expectedList = {new Diff(1, 2), new Diff(6, 1)};
+        assertArrayEquals("Wrong diff (offset+len)", expectedList, new Comparator().processDiff(left, right).toArray());
+    }
+
+    /**
+     * Tests that no update is lost with 64 concurrent writers. Each pair of
+     * writers stores the left and the right sides of the same ids at the 
+     * same time.
+     */
+    @Test
+    public void concurrentWritersShouldNotLoseUpdates() throws Exception {
+        int writers = 64;
+        int idsPerPair = 2000;
+        int firstId = 100000;
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            int writer = w;
+            futures.add(executor.submit(() -> {
+                start.await();
+                int base = firstId + (writer / 2) * idsPerPair;
+                for (int id = base; id < base + idsPerPair; id++) {
+                    if (writer % 2 == 0) {
+                        MapRepository.getInstance().insertLeftInput(new Input(id, "L" + writer));
+                    } else {
+                        MapRepository.getInstance().insertRightInput(new Input(id, "R" + writer));
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        for (int w = 0; w < writers; w += 2) {
+            int base = firstId + (w / 2) * idsPerPair;
+            for (int id = base; id < base + idsPerPair; id++) {
+                InputPair pair = MapRepository.getInstance().getInputPair(id);
+                assertNotNull("Lost pair for id " + id, pair);
+                assertEquals("Lost left input for id " + id, "L" + w, pair.getLeft().asString());
+                assertEquals("Lost right input for id " + id, "R" + (w + 1), pair.getRight().asString());
+            }
+        }
+    }
+
+    /**
+     * Tests that a result is computed once and reused until a side is replaced.
+     */
+    @Test
+    public void resultShouldBeCachedUntilReplaced() {
+        Integer id = 5;
+        MapRepository.getInstance().insertLeftInput(new Input(id, "YWMvZGM="));
+        MapRepository.getInstance().insertRightInput(new Input(id, "YUMhZGM="));
+        
+        long hits = ResultCache.getInstance().getHits();
+        Output output = new Comparator().compare(id);
+        assertSame("Result not cached", output, new Comparator().compare(id));
+        assertEquals("Wrong hit count", hits + 1, ResultCache.getInstance().getHits());
+
+        MapRepository.getInstance().insertRightInput(new Input(id, "YWMvZGM="));
+        Output replaced = new Comparator().compare(id);
+        assertNotSame("Stale result", output, replaced);
+        assertEquals("Wrong result type", Result.EQUAL, replaced.getResult());
+    }
+
+    /**
+     * Tests that the least recently used results are evicted when the
+     * memory budget is exceeded.
+     */
+    @Test
+    public void resultCacheShouldEvictLeastRecentlyUsed() {
+        ResultCache cache = new ResultCache(300);
+        cache.put(1, 1, new Output(1));
+        cache.put(2, 2, new Output(2));
+        assertNotNull("Missing result 1", cache.get(1, 1));
+        cache.put(3, 3, new Output(3));
+
+        assertEquals("Wrong eviction count", 1, cache.getEvictions());
+        assertNull("Result 2 should be evicted", cache.get(2, 2));
+        assertNotNull("Missing result 1", cache.get(1, 1));
+        assertNotNull("Missing result 3", cache.get(3, 3));
+        assertNull("Old version should miss", cache.get(3, 2));
+        assertEquals("Wrong miss count", 2, cache.getMisses());
+        assertEquals("Wrong bytes", 256, cache.getBytes());
+        cache.invalidate(1);
+        assertEquals("Wrong bytes after invalidation", 128, cache.getBytes());
+        assertEquals("Wrong size", 1, cache.getSize());
+    }
+
+    /**
+     * Tests that a comparison scheduled in background is the one returned
+     * by the result.
+     */
+    @Test
+    public void resultShouldBeComputedInBackground() throws Exception {
+        Integer id = 6;
+        ExecutorService executor = ComputePool.create("test-compute", 1, 1);
+        DiffScheduler scheduler = new DiffScheduler(executor, true);
+        MapRepository.getInstance().insertLeftInput(new Input(id, "YWMvZGM="));
+        scheduler.schedule(id);
+        MapRepository.getInstance().insertRightInput(new Input(id, "YUMhZGM="));
+        scheduler.schedule(id);
+
+        Output output = scheduler.getResultAsync(id).get(10, TimeUnit.SECONDS);
+        assertEquals("Wrong result type", Result.DIFFERENT, output.getResult());
+        assertArrayEquals("Wrong diff (offset+len)", new Object[]{new Diff(1, 1), new Diff(3, 1)}, output.getDiffList().toArray());
+        executor.shutdown();
+    }
+
+    /**
+     * Tests that a result to be computed doesn't block the caller, while 
+     * cheap results are answered right away.
+     */
+    @Test
+    public void resultShouldBeComputedAsynchronously() throws Exception {
+        ExecutorService executor = ComputePool.create("test-compute", 1, 1);
+        CountDownLatch busy = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                busy.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        DiffScheduler scheduler = new DiffScheduler(executor, false);
+        MapRepository.getInstance().insertLeftInput(new Input(12, "YWMvZGM="));
+        MapRepository.getInstance().insertRightInput(new Input(12, "YUMhZGM="));
+        MapRepository.getInstance().insertLeftInput(new Input(13, "YWMvZGM="));
+        MapRepository.getInstance().insertRightInput(new Input(13, "YWMvZGM="));
+
+        CompletableFuture<Output> different = scheduler.getResultAsync(12);
+        CompletableFuture<Output> equal = scheduler.getResultAsync(13);
+        assertFalse("Comparison shouldn't run on the caller", different.isDone());
+        assertTrue("Equal result should be ready", equal.isDone());
+        assertEquals("Wrong result type", Result.EQUAL, equal.get().getResult());
+        assertNull("Missing id should have no result", scheduler.getResultAsync(14).get());
+
+        busy.countDown();
+        assertArrayEquals("Wrong diff (offset+len)", new Object[]{new Diff(1, 1), new Diff(3, 1)}, 
+                different.get(10, TimeUnit.SECONDS).getDiffList().toArray());
+        executor.shutdown();
+    }
+
+    /**
+     * Tests that the result is not computed by the request when the compute
+     * pool is saturated, unless it is cheap.
+     */
+    @Test
+    public void resultShouldNotBeComputedByTheCallerWhenPoolIsSaturated() throws Exception {
+        Integer id = 7;
+        ExecutorService executor = ComputePool.create("test-compute", 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        executor.execute(() -> {
+        });
+        DiffScheduler scheduler = new DiffScheduler(executor, true);
+        MapRepository.getInstance().insertLeftInput(new Input(id, "YWMvZGM="));
+        MapRepository.getInstance().insertRightInput(new Input(id, "YWMvZGM="));
+        scheduler.schedule(id);
+
+        CompletableFuture<Output> equal = scheduler.getResultAsync(id);
+        assertEquals("Wrong result type", Result.EQUAL, equal.getNow(null).getResult());
+        MapRepository.getInstance().insertLeftInput(new Input(15, "YWMvZGM="));
+        MapRepository.getInstance().insertRightInput(new Input(15, "YUMhZGM="));
+        CompletableFuture<Output> different = scheduler.getResultAsync(15);
+        assertTrue("Rejected comparison should fail", different.isCompletedExceptionally());
+        try {
+            different.join();
+            fail("Comparison shouldn't run on the caller");
+        } catch (CompletionException e) {
+            assertTrue("Wrong failure", e.getCause() instanceof RejectedExecutionException);
+        }
+        release.countDown();
+        executor.shutdown();
+    }
+
+    /**
+     * Tests that the streamed JSON body gives the value, skipping other
+     * members and decoding escapes.
+     */
+    @Test
+    public void jsonBodyShouldBeReadAsStream() throws Exception {
+        String json = "{\"id\": 3, \"extra\": [1, {\"a\": \"}\"}, true], \"value\" : \"YWMv\\/ZGM=\", \"other\": null}";
+        Payload payload = PayloadReader.readJson(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), -1);
+        assertEquals("Wrong value", "YWMv/ZGM=", payload.asString());
+    }
+
+    /**
+     * Tests that the size a client informs is only a hint, and that values
+     * longer than the read buffer are read whole.
+     */
+    @Test
+    public void bodySizeShouldBeAHint() throws Exception {
+        byte[] json = "{\"value\":\"YWMvZGM=\"}".getBytes(StandardCharsets.UTF_8);
+        assertEquals("Wrong value", "YWMvZGM=", PayloadReader.readJson(new ByteArrayInputStream(json), 2000000000L).asString());
+        byte[] data = "ac/dc".getBytes(StandardCharsets.US_ASCII);
+        assertEquals("Wrong value", "YWMvZGM=", PayloadReader.readBinary(new ByteArrayInputStream(data), Long.MAX_VALUE).asString());
+
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            value.append("YWMvZGM=");
+        }
+        value.setCharAt(8190, '/');
+        String body = "{\"value\":\"" + value.toString().replace("/", "\\/") + "\"}";
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        assertEquals("Wrong long value", value.toString(), PayloadReader.readJson(new ByteArrayInputStream(bytes), bytes.length).asString());
+    }
+
+    /**
+     * Tests that a JSON body without a value is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void jsonBodyWithoutValueShouldBeRejected() throws Exception {
+        String json = "{\"id\": 3}";
+        PayloadReader.readJson(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), -1);
+    }
+
+    /**
+     * Tests that a JSON body with malformed members or content after the
+     * object is rejected, and that valid scalars are skipped.
+     */
+    @Test
+    public void malformedJsonBodyShouldBeRejected() throws Exception {
+        String[] invalid = {"{\"x\":foo,\"value\":\"YWMv\"}", "{\"x\":tru,\"value\":\"YWMv\"}", 
+            "{\"x\":01,\"value\":\"YWMv\"}", "{\"x\":1.,\"value\":\"YWMv\"}", "{\"x\":[1 2],\"value\":\"YWMv\"}",
+            "{\"x\":{\"a\" 1},\"value\":\"YWMv\"}", "{\"value\":\"YWMv\"}garbage", "{\"value\":\"YWMv\"} }"};
+        for (String json : invalid) {
+            try {
+                PayloadReader.readJson(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), -1);
+                fail("Should be rejected: " + json);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        String json = "{\"a\":-0.5e+3,\"b\":[false,null,12,{}],\"c\":{\"d\":[]},\"value\":\"YWMv\"}\r\n";
+        assertEquals("Wrong value", "YWMv", PayloadReader.readJson(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), -1).asString());
+    }
+
+    /**
+     * Tests that a binary body is stored as its base64 encoding.
+     */
+    @Test
+    public void binaryBodyShouldBeEncoded() throws Exception {
+        byte[] data = "ac/dc!!".getBytes(StandardCharsets.US_ASCII);
+        Payload payload = PayloadReader.readBinary(new ByteArrayInputStream(data), data.length);
+        assertEquals("Wrong value", "YWMvZGMhIQ==", payload.asString());
+    }
+
+    /**
+     * Tests that payloads kept off the Java heap are compared as the ones
+     * kept in the heap.
+     */
+    @Test
+    public void directPayloadShouldBeCompared() {
+        byte[] bytes = "YWMvZGM=".getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes).flip();
+        Payload left = new Payload(direct);
+        
+        assertTrue("Payload should be direct", left.isDirect());
+        assertEquals("Wrong length", 8, left.length());
+        assertEquals("Direct and heap payloads should be equal", Payload.of("YWMvZGM="), left);
+        assertEquals("Wrong hash", Payload.of("YWMvZGM=").getHash(), left.getHash());
+        assertFalse("Payloads should differ", Payload.of("YUMhZGM=").equals(left));
+        
+        Object[] expectedList = {new Diff(1, 1), new Diff(3, 1)};
+        assertArrayEquals("Wrong diff (offset+len)", expectedList, new Comparator().processDiff(left, Payload.of("YUMhZGM=")).toArray());
+    }
+
+    /**
+     * Tests that the mapped repository keeps the payloads out of the heap,
+     * loads them again after being reopened and deletes the segments with 
+     * no payload stored.
+     */
+    @Test
+    public void mappedRepositoryShouldSurviveRestart() throws Exception {
+        Integer id = 8;
+        Path directory = Files.createTempDirectory("json-diff-test");
+        MappedRepository repository = new MappedRepository(directory, 16);
+        repository.insertLeftInput(new Input(id, "YWMvZGM="));
+        repository.insertRightInput(new Input(id, "YmxhY2sgc2FiYmF0aA=="));
+        repository.insertRightInput(new Input(id, "YUMhZGM="));
+        assertFalse("Replaced segment should be deleted", Files.exists(directory.resolve("segment-000002.dat")));
+        repository.insertLeftInput(new Input(9, "YWNkYwo="));
+        repository.close();
+
+        MappedRepository reopened = new MappedRepository(directory, 16);
+        InputPair pair = reopened.getInputPair(id);
+        assertTrue("Payload should be mapped", pair.getLeft().isDirect());
+        assertEquals("Wrong left value", "YWMvZGM=", pair.getLeft().asString());
+        assertEquals("Wrong right value", "YUMhZGM=", pair.getRight().asString());
+        assertEquals("Wrong left value", "YWNkYwo=", reopened.getLeftInput(9).getValue());
+
+        Output output = new Comparator().compare(id, pair);
+        Object[] expectedList = {new Diff(1, 1), new Diff(3, 1)};
+        assertArrayEquals("Wrong diff (offset+len)", expectedList, output.getDiffList().toArray());
+
+        reopened.insertLeftInput(new Input(9, "emVwbGVk"));
+        assertTrue("Delete should remove", reopened.delete(id));
+        reopened.close();
+        MappedRepository last = new MappedRepository(directory, 16);
+        assertEquals("Wrong replaced value", "emVwbGVk", last.getLeftInput(9).getValue());
+        assertNull("Deleted id should stay removed", last.getInputPair(id));
+        assertEquals("Only the live segment should be kept", 1, list(directory, "segment-*.dat").size());
+        assertEquals("Index should keep only the live records", 25, Files.size(directory.resolve("index.dat")));
+        last.insertRightInput(new Input(9, "YWMvZGM="));
+        last.close();
+        assertEquals("Wrong value after compaction", "emVwbGVk", new MappedRepository(directory, 16).getLeftInput(9).getValue());
+    }
+
+    /**
+     * Tests that the parallel scan joins the runs crossing chunk boundaries
+     * and finds the same runs as the sequential scan.
+     */
+    @Test
+    public void parallelResultShouldMatchSequential() {
+        char[] left = new char[1000];
+        char[] right = new char[1000];
+        Arrays.fill(left, 'A');
+        Arrays.fill(right, 'A');
+        int[][] runs = {{0, 1}, {6, 4}, {15, 1}, {17, 30}, {64, 8}, {100, 1}, {102, 1}, {500, 300}, {998, 2}};
+        for (int[] run : runs) {
+            for (int i = run[0]; i < run[0] + run[1]; i++) {
+                right[i] = 'B';
+            }
+        }
+        Payload leftPayload = Payload.of(new String(left));
+        Payload rightPayload = Payload.of(new String(right));
+        List<Diff> expected = new Comparator().processDiff(leftPayload, rightPayload);
+
+        ForkJoinPool pool = ParallelDiff.createPool(4);
+        for (int chunkSize : new int[]{3, 8, 64, 999, 1000}) {
+            List<Diff> diffList = new ParallelDiff(pool, 1, chunkSize).diff(leftPayload.asBuffer(), rightPayload.asBuffer(), 1000);
+            assertArrayEquals("Wrong diff (offset+len) for chunk size " + chunkSize, expected.toArray(), diffList.toArray());
+        }
+        pool.shutdown();
+    }
+
+    /**
+     * Tests that the block hashes point only to the changed blocks and that
+     * the result is the same as scanning the whole payloads.
+     */
+    @Test
+    public void blockHashesShouldFindChangedBlocks() {
+        char[] left = new char[1000];
+        char[] right = new char[1000];
+        Arrays.fill(left, 'A');
+        Arrays.fill(right, 'A');
+        right[5] = 'B';
+        right[300] = 'B';
+        for (int i = 126; i < 130; i++) {
+            right[i] = 'B';
+        }
+        right[999] = 'B';
+        ByteBuffer leftBuffer = Payload.of(new String(left)).asBuffer();
+        ByteBuffer rightBuffer = Payload.of(new String(right)).asBuffer();
+
+        List<int[]> ranges = MerkleTree.build(leftBuffer, 64).mismatches(MerkleTree.build(rightBuffer, 64));
+        assertEquals("Wrong number of ranges", 3, ranges.size());
+        assertArrayEquals("Wrong first range", new int[]{0, 192}, ranges.get(0));
+        assertArrayEquals("Wrong second range", new int[]{256, 320}, ranges.get(1));
+        assertArrayEquals("Wrong last range", new int[]{960, 1000}, ranges.get(2));
+        assertTrue("Equal payloads should have no ranges", 
+                MerkleTree.build(leftBuffer, 64).mismatches(MerkleTree.build(leftBuffer, 64)).isEmpty());
+
+        Diff[] expected = {new Diff(5, 1), new Diff(126, 4), new Diff(300, 1), new Diff(999, 1)};
+        assertArrayEquals("Wrong diff (offset+len)", expected, 
+                new Comparator().processDiff(Payload.of(new String(left)), Payload.of(new String(right))).toArray());
+    }
+
+    /**
+     * Tests that the primitive run container behaves as a list of 
+     * {@code Diff}, joins touching runs and gives the same JSON.
+     */
+    @Test
+    public void diffRunsShouldActAsDiffList() throws IOException {
+        DiffRuns runs = new DiffRuns(1);
+        runs.add(1, 2);
+        runs.add(new Diff(5, 3));
+        DiffRuns next = new DiffRuns();
+        next.add(8, 1);
+        next.add(20, 4);
+        runs.join(next);
+
+        List<Diff> expected = Arrays.asList(new Diff(1, 2), new Diff(5, 4), new Diff(20, 4));
+        assertEquals("Wrong runs", expected, runs);
+        assertEquals("Wrong length", 4, runs.getLength(1));
+
+        ObjectMapper mapper = new ObjectMapper();
+        assertEquals("Wrong JSON", mapper.writeValueAsString(new ArrayList<>(expected)), mapper.writeValueAsString(runs));
+    }
+
+    /**
+     * Tests the quantiles of the histogram and the Prometheus output.
+     */
+    @Test
+    public void histogramShouldTrackQuantiles() throws IOException, InterruptedException {
+        Histogram histogram = new Histogram(1);
+        for (int i = 1; i <= 10000; i++) {
+            histogram.record(i);
+        }
+        assertEquals("Wrong count", 10000, histogram.getCount());
+        assertEquals("Wrong sum", 50005000, histogram.getSum(), 0);
+        assertEquals("Wrong median", 5000, histogram.getQuantile(0.5), 5000 * 0.04);
+        assertEquals("Wrong p99", 9900, histogram.getQuantile(0.99), 9900 * 0.04);
+
+        Histogram shared = new Histogram(1);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 1; i <= 1000; i++) {
+                    shared.record(i);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals("Wrong striped count", 8000, shared.getCount());
+        assertEquals("Wrong striped median", 500, shared.getQuantile(0.5), 500 * 0.04);
+        assertEquals("Wrong striped max", 1000, shared.getQuantile(1), 1000 * 0.04);
+
+        Metrics.getInstance().histogram("jsondiff_test_values", "Test values.", 1, "side", "left").record(7);
+        StringWriter out = new StringWriter();
+        Metrics.getInstance().write(out);
+        assertTrue("Missing type", out.toString().contains("# TYPE jsondiff_test_values summary\n"));
+        assertTrue("Missing count", out.toString().contains("jsondiff_test_values_count{side=\"left\"} 1\n"));
+
+        Metrics.getInstance().counter("jsondiff_test_reads_total", "Test reads.", () -> 3);
+        out = new StringWriter();
+        Metrics.getInstance().write(out);
+        assertTrue("Missing counter type", out.toString().contains("# TYPE jsondiff_test_reads_total counter\n"));
+        assertTrue("Missing counter", out.toString().contains("jsondiff_test_reads_total 3\n"));
+    }
+
+    /**
+     * Tests that large values are summarized for the log and that debug is
+     * off by default.
+     */
+    @Test
+    public void largeValuesShouldBeSummarized() {
+        char[] value = new char[1 << 20];
+        Arrays.fill(value, 'A');
+        String text = new Input(1, new String(value)).toString();
+        assertTrue("Value should be summarized", text.length() < 100);
+        assertTrue("Length should be kept", text.endsWith("(1048576 chars)"));
+        assertEquals("Small values should be kept", "id=2 value=YWMvZGM=", new Input(2, "YWMvZGM=").toString());
+        assertFalse("Debug should be disabled", Logger.isDebugEnabled());
+    }
+
+    /**
+     * Tests that pairs expire and that the least recently used ones are 
+     * evicted when the repository goes over its budget.
+     */
+    @Test
+    public void repositoryShouldEvictOverBudget() throws InterruptedException {
+        MapRepository budget = new MapRepository(0, 100);
+        for (int id = 1; id <= 5; id++) {
+            budget.insertLeftPayload(id, Payload.of("YWMvZGM=YWMvZGM=YWMvZGM=YWMvZGM=YWMvZGM="));
+        }
+        assertEquals("Wrong bytes", 200, budget.getBytes());
+        budget.cleanUp();
+        assertEquals("Wrong bytes after eviction", 80, budget.getBytes());
+        assertNull("Oldest should be evicted", budget.getInputPair(1));
+        assertNotNull("Newest should be kept", budget.getInputPair(5));
+        assertTrue("Delete should remove", budget.delete(5));
+        assertFalse("Delete of missing id", budget.delete(5));
+        assertEquals("Wrong bytes after delete", 40, budget.getBytes());
+
+        MapRepository lowWater = new MapRepository(0, 100);
+        for (int id = 1; id <= 13; id++) {
+            lowWater.insertLeftPayload(id, Payload.of("YWMvZGM="));
+        }
+        lowWater.cleanUp();
+        assertEquals("Should evict down to the low-water mark", 88, lowWater.getBytes());
+
+        MapRepository ttl = new MapRepository(1, 0);
+        ttl.insertLeftPayload(1, Payload.of("YWMvZGM="));
+        Thread.sleep(10);
+        assertNull("Expired pair shouldn't be read", ttl.getInputPair(1));
+        ttl.insertRightPayload(1, Payload.of("YWMvZGM="));
+        assertNull("Expired side shouldn't come back", ttl.getInputPair(1).getLeft());
+        Thread.sleep(10);
+        ttl.cleanUp();
+        assertEquals("Expired pairs should be removed", 0, ttl.getSize());
+        assertEquals("Wrong bytes after expiry", 0, ttl.getBytes());
+    }
+
+    /**
+     * Tests the int-keyed index while it grows under concurrent writers and
+     * readers, and that removed slots are reused by the same id.
+     */
+    @Test
+    public void pairIndexShouldGrowUnderConcurrentWrites() throws Exception {
+        PairIndex index = new PairIndex();
+        int threads = 4;
+        int perThread = 50000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads * 2);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int first = t * perThread - 100000;
+            futures.add(executor.submit(() -> {
+                for (int id = first; id < first + perThread; id++) {
+                    long version = id;
+                    index.compute(id, pair -> new InputPair(null, null, version));
+                }
+            }));
+            futures.add(executor.submit(() -> {
+                for (int id = first; id < first + perThread; id++) {
+                    InputPair pair = index.get(id);
+                    assertTrue("Wrong pair read", pair == null || pair.getVersion() == id);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        assertEquals("Wrong size", threads * perThread, index.size());
+        for (int id = -100000; id < threads * perThread - 100000; id++) {
+            assertEquals("Wrong pair", id, index.get(id).getVersion());
+        }
+
+        InputPair pair = index.get(7);
+        assertFalse("Remove should check the pair", index.remove(7, new InputPair(null, null, 7)));
+        assertTrue("Remove should remove", index.remove(7, pair));
+        assertNull("Removed id shouldn't be found", index.get(7));
+        assertNull("Removed id should be absent for compute", index.compute(7, current -> current));
+        index.compute(7, current -> pair);
+        assertEquals("Wrong size after reinsert", threads * perThread, index.size());
+        int[] visited = new int[1];
+        index.forEach((id, value) -> visited[0]++);
+        assertEquals("Wrong pairs visited", threads * perThread, visited[0]);
+    }
+
+    /**
+     * Tests that consistent hashing spreads the ids evenly and moves only
+     * the ids of a new member, and that the sharded repository keeps each id
+     * in one shard.
+     */
+    @Test
+    public void hashRingShouldMoveFewIds() {
+        HashRing<Integer> four = new HashRing<>(Arrays.asList(0, 1, 2, 3));
+        HashRing<Integer> five = new HashRing<>(Arrays.asList(0, 1, 2, 3, 4));
+        int[] counts = new int[4];
+        int moved = 0;
+        for (int id = 0; id < 100000; id++) {
+            int owner = four.get(id);
+            counts[owner]++;
+            int newOwner = five.get(id);
+            if (newOwner != owner) {
+                assertEquals("Ids should only move to the new member", 4, newOwner);
+                moved++;
+            }
+        }
+        for (int count : counts) {
+            assertTrue("Unbalanced shard: " + count, count > 20000 && count < 30000);
+        }
+        assertTrue("Too many ids moved: " + moved, moved > 15000 && moved < 25000);
+
+        ShardedRepository repository = new ShardedRepository(4, 0, 0, 0);
+        for (int id = 0; id < 100; id++) {
+            repository.insertLeftPayload(id, Payload.of("YWMvZGM="));
+            repository.insertRightPayload(id, Payload.of("YWMvZGE="));
+        }
+        assertEquals("Wrong size", 100, repository.getSize());
+        assertEquals("Wrong bytes", 1600, repository.getBytes());
+        assertTrue("Pair should be complete", repository.getInputPair(42).isComplete());
+        assertNotNull("Pair should be in its shard", repository.shardOf(42).getInputPair(42));
+    }
+
+    /**
+     * Tests that decoded comparisons report offsets in decoded bytes, that
+     * the decoded bytes are not kept with the stored payloads and that the
+     * decoded result is cached.
+     */
+    @Test
+    public void decodedComparisonShouldUseByteOffsets() {
+        Comparator comparator = new Comparator();
+        InputPair pair = new InputPair(Payload.of("YWMvZGM="), Payload.of("YWMvZGE="), 1);
+        assertArrayEquals("Wrong base64 diffList", new Diff[]{new Diff(6, 1)},
+                comparator.processDiff(pair.getLeft(), pair.getRight()).toArray());
+        Output decoded = comparator.compareDecoded(12, pair);
+        assertEquals("Wrong decoded result", Result.DIFFERENT, decoded.getResult());
+        assertArrayEquals("Wrong decoded diffList", new Diff[]{new Diff(4, 1)}, decoded.getDiffList().toArray());
+        assertEquals("Wrong decoded bytes", "ac/dc", pair.decoded().getLeft().asString());
+        assertNotSame("Decoded bytes shouldn't be kept", pair.getLeft().decode(), pair.getLeft().decode());
+        assertNull("Decoded bytes shouldn't build a tree", pair.getLeft().decode().getTree());
+        assertSame("Decoded result should be cached", decoded, comparator.compareDecoded(12, pair));
+        assertNull("Decoded result should be apart", ResultCache.getInstance().get(12, 1));
+
+        InputPair sizes = new InputPair(Payload.of("YWMvZGM="), Payload.of("YWMvZA=="), 2);
+        assertEquals("Wrong decoded size result", Result.DIFFERENT_SIZE, comparator.compareDecoded(12, sizes).getResult());
+        assertNull("Incomplete pair shouldn't have a result", comparator.compareDecoded(12, new InputPair(pair.getLeft(), null, 3)));
+        try {
+            comparator.compareDecoded(12, new InputPair(Payload.of("not base64"), pair.getRight(), 4));
+            fail("Invalid base64 should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Tests that the durable repository recovers from its log and snapshot,
+     * and cuts a record torn by a crash.
+     */
+    @Test
+    public void durableRepositoryShouldRecover() throws Exception {
+        Path directory = Files.createTempDirectory("json-diff-wal");
+        DurableRepository repository = new DurableRepository(directory, true, 10, 64, 0);
+        repository.insertLeftInput(new Input(1, "YWMvZGM="));
+        repository.insertRightInput(new Input(1, "YWMvZGE="));
+        repository.insertLeftInput(new Input(2, "YmxhY2sgc2FiYmF0aA=="));
+        repository.insertLeftInput(new Input(3, "YWNkYwo="));
+        assertTrue("Delete should remove", repository.delete(3));
+        repository.close();
+
+        repository = new DurableRepository(directory, true, 10, 64, 0);
+        assertEquals("Wrong left value", "YWMvZGM=", repository.getLeftInput(1).getValue());
+        assertEquals("Wrong right value", "YWMvZGE=", repository.getRightInput(1).getValue());
+        assertNull("Deleted id should stay removed", repository.getInputPair(3));
+        repository.snapshot();
+        repository.insertRightInput(new Input(2, "emVwbGVk"));
+        repository.close();
+
+        List<Path> segments = list(directory, "wal-*.log");
+        Collections.sort(segments);
+        Files.write(segments.get(segments.size() - 1), new byte[]{0, 0, 0, 40, 1, 2}, StandardOpenOption.APPEND);
+
+        repository = new DurableRepository(directory, false, 10, 1 << 20, 0);
+        assertEquals("Only the last snapshot should be kept", 1, list(directory, "snapshot-*.dat").size());
+        assertEquals("Wrong value from snapshot", "YmxhY2sgc2FiYmF0aA==", repository.getLeftInput(2).getValue());
+        assertEquals("Wrong value after snapshot", "emVwbGVk", repository.getRightInput(2).getValue());
+        assertEquals("Wrong size", 2, repository.getSize());
+        repository.close();
+    }
+
+    /**
+     * Tests that large records are written in order with the small ones, and
+     * that appends fail once the log can't be written, also when a rotation
+     * fails.
+     */
+    @Test
+    public void writeAheadLogShouldKeepOrderAndFail() throws Exception {
+        Path directory = Files.createTempDirectory("json-diff-wal");
+        char[] large = new char[1 << 20];
+        Arrays.fill(large, 'A');
+        Payload small = Payload.of("YWMvZGM=");
+        WriteAheadLog log = new WriteAheadLog(directory, 1, true, 10, 1L << 30);
+        log.append(1, WriteAheadLog.LEFT, small);
+        log.append(2, WriteAheadLog.LEFT, Payload.of(new String(large)));
+        log.sync(log.append(3, WriteAheadLog.RIGHT, small));
+        log.close();
+        List<String> records = new ArrayList<>();
+        WriteAheadLog.replay(WriteAheadLog.segmentPath(directory, 1), (id, side, hash, payload) -> records.add(id + ":" + payload.remaining()));
+        assertEquals("Wrong records", Arrays.asList("1:8", "2:" + large.length, "3:8"), records);
+
+        Files.createFile(WriteAheadLog.segmentPath(directory, 3));
+        WriteAheadLog failing = new WriteAheadLog(directory, 2, false, 1, 1);
+        long deadline = System.currentTimeMillis() + 10000;
+        try {
+            while (System.currentTimeMillis() < deadline) {
+                failing.append(1, WriteAheadLog.LEFT, small);
+                Thread.sleep(5);
+            }
+            fail("Appends should fail once the log is not written");
+        } catch (UncheckedIOException e) {
+            // expected
+        }
+
+        Files.createFile(WriteAheadLog.segmentPath(directory, 11));
+        WriteAheadLog rotating = new WriteAheadLog(directory, 10, false, 60000, 1L << 30);
+        rotating.append(1, WriteAheadLog.LEFT, small);
+        try {
+            rotating.rotate();
+            fail("Rotation should fail when the new segment exists");
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            rotating.append(2, WriteAheadLog.LEFT, small);
+            fail("Appends should fail once a rotation failed");
+        } catch (UncheckedIOException e) {
+            // expected
+        }
+        try {
+            rotating.close();
+            fail("Close should report the failure");
+        } catch (IOException e) {
+            // expected
+        }
+        records.clear();
+        WriteAheadLog.replay(WriteAheadLog.segmentPath(directory, 10), (id, side, hash, payload) -> records.add(id + ":" + payload.remaining()));
+        assertEquals("Records before the failure should be written", Arrays.asList("1:8"), records);
+    }
+
+    private static List<Path> list(Path directory, String glob) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, glob)) {
+            files.forEach(paths::add);
+        }
+        return paths;
+    }
+
+    /**
+     * Tests that number settings that are not valid or out of range are 
+     * replaced by the default value, or ignored.
+     */
+    @Test
+    public void invalidNumberSettingsShouldBeIgnored() {
+        try {
+            System.setProperty("JSONDIFF_TEST_NUMBER", "many");
+            assertEquals("Non-numeric should use the default", 4, Settings.getInt("JSONDIFF_TEST_NUMBER", 4));
+            assertFalse("Non-numeric should be ignored", Settings.getIntAtLeast("JSONDIFF_TEST_NUMBER", 1).isPresent());
+            System.setProperty("JSONDIFF_TEST_NUMBER", "4294967297");
+            assertEquals("Out of range should use the default", 4, Settings.getInt("JSONDIFF_TEST_NUMBER", 4));
+            System.setProperty("JSONDIFF_TEST_NUMBER", "0");
+            assertFalse("Below the minimum should be ignored", Settings.getIntAtLeast("JSONDIFF_TEST_NUMBER", 1).isPresent());
+            assertEquals("Valid value should be read", Integer.valueOf(0), Settings.getIntAtLeast("JSONDIFF_TEST_NUMBER", -1).get());
+        } finally {
+            System.clearProperty("JSONDIFF_TEST_NUMBER");
+        }
+    }
+
+    /**
+     * Tests the content hash against the xxHash64 reference values.
+     */
+    @Test
+    public void hashShouldMatchReference() {
+        assertEquals("Wrong hash of empty", 0xEF46DB3751D8E999L, XXHash64.hash(ByteBuffer.wrap(new byte[0]), 0));
+        assertEquals("Wrong hash of a", 0xD24EC4F1A98C6E5BL, XXHash64.hash(ByteBuffer.wrap("a".getBytes(StandardCharsets.US_ASCII)), 0));
+        assertEquals("Wrong hash of abc", 0x44BC2CF5AD770999L, XXHash64.hash(ByteBuffer.wrap("abc".getBytes(StandardCharsets.US_ASCII)), 0));
+        assertEquals("Wrong hash of long text", 0xFBCEA83C8A378BF1L, XXHash64.hash(ByteBuffer.wrap(
+                "Nobody inspects the spammish repetition".getBytes(StandardCharsets.US_ASCII)), 0));
+    }
         
 }